@@ -17,12 +17,22 @@ dependencies {
 	implementation("org.jetbrains.kotlin:kotlin-reflect")
 	implementation("org.jetbrains.kotlin:kotlin-stdlib-jdk8")
 	testImplementation("org.junit.jupiter:junit-jupiter:5.6.1")
+	testImplementation("org.openjdk.jmh:jmh-core:1.23")
+	testAnnotationProcessor("org.openjdk.jmh:jmh-generator-annprocess:1.23")
 }
 
 tasks.withType<Test> {
 	useJUnitPlatform()
 }
 
+tasks.register<JavaExec>("benchmark") {
+	description = "Runs the JMH benchmarks from the test sources, e.g. --args='UC02Benchmark'"
+	group = "verification"
+	dependsOn("testClasses")
+	classpath = sourceSets["test"].runtimeClasspath
+	main = "org.openjdk.jmh.Main"
+}
+
 tasks.withType<KotlinCompile> {
 	kotlinOptions {
 		freeCompilerArgs = listOf("-Xjsr305=strict")
@@ -1,12 +1,43 @@
 package com.mercadolibre.examples.java;
 
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
 import org.junit.jupiter.api.Test;
 
+import com.sun.management.ThreadMXBean;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collector;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 class State {
 
@@ -96,24 +127,1059 @@ class PersonService {
 	public static final Integer AGE_LIMIT_FILTER = 18;
 	public static final Integer POPULATION_LIMIT_FILTER = 100000;
 
+	public static final Integer PARALLEL_THRESHOLD = 10000;
+
 	public Collection<String> getStates(Collection<Person> persons) {
 		if (persons == null) {//VER PARA FAZER COM OPTIONAL
 			return new ArrayList<>();
 		}
-		return persons.stream()
+		if (persons.size() >= PARALLEL_THRESHOLD) {
+			return getStatesInParallel(persons);
+		}
+		return getStatesSequentially(persons);
+	}
+
+	// hand-specialized pipeline: nothing is allocated per person, only the bitmap and the result per call
+	Collection<String> getStatesSequentially(Collection<Person> persons) {
+		int ageLimit = AGE_LIMIT_FILTER;
+		int populationLimit = POPULATION_LIMIT_FILTER;
+		StateCodeBitmap found = new StateCodeBitmap();
+		for (Person person : persons) {
+			Integer age = person.getAge();
+			if (age == null || age < ageLimit) {
+				continue;
+			}
+			City city = person.getAddress().getCity();
+			Integer population = city.getPopulation();
+			if (population == null || population < populationLimit) {
+				continue;
+			}
+			found.add(city.getState().getName());
+		}
+		return found.states();
+	}
+
+	Collection<String> getStatesInParallel(Collection<Person> persons) {
+		return eligibleStates(persons.parallelStream().unordered())
+			.collect(StateCodeBitmap.sortedDistinct());
+	}
+
+	public Collection<String> getStates(PersonAgeIndex persons) {
+		return getStates(persons, StatesQuery.DEFAULT);
+	}
+
+	public Collection<String> getStates(PersonAgeIndex persons, StatesQuery query) {
+		if (persons == null) {
+			return new ArrayList<>();
+		}
+		PersonColumns table = persons.table();
+		int[] statesByCity = table.statesByCity(query.getPopulationLimit());
+		boolean[] eligible = new boolean[table.stateCount()];
+		int remaining = 0;
+		for (int state : statesByCity) {
+			if (state != PersonTable.NO_STATE && !eligible[state]) {
+				eligible[state] = true;
+				remaining++;
+			}
+		}
+		boolean[] found = new boolean[table.stateCount()];
+		for (int index = persons.firstAtLeast(query.getAgeLimit()); index < persons.size() && remaining > 0; index++) {
+			int city = persons.cityId(index);
+			if (city != PersonTable.NO_CITY && statesByCity[city] != PersonTable.NO_STATE && !found[statesByCity[city]]) {
+				found[statesByCity[city]] = true;
+				remaining--;
+			}
+		}
+		return table.stateNames(found);
+	}
+
+	public Collection<String> getStates(PersonRegistry persons) {
+		if (persons == null) {
+			return new ArrayList<>();
+		}
+		return persons.snapshot().getStates();
+	}
+
+	public List<Collection<String>> getStates(Collection<Person> persons, List<StatesQuery> queries) {
+		int[] ageLimits = queries.stream().mapToInt(StatesQuery::getAgeLimit).toArray();
+		int[] populationLimits = queries.stream().mapToInt(StatesQuery::getPopulationLimit).toArray();
+		StateCodeBitmap[] found = new StateCodeBitmap[queries.size()];
+		for (int query = 0; query < found.length; query++) {
+			found[query] = new StateCodeBitmap();
+		}
+		for (Person person : persons == null ? Collections.<Person>emptyList() : persons) {
+			City city = person.getAddress() == null ? null : person.getAddress().getCity();
+			if (person.getAge() == null || city == null || city.getPopulation() == null || city.getState() == null || city.getState().getName() == null) {
+				continue;
+			}
+			int age = person.getAge();
+			int population = city.getPopulation();
+			for (int query = 0; query < found.length; query++) {
+				if (age >= ageLimits[query] && population >= populationLimits[query]) {
+					found[query].add(city.getState().getName());
+				}
+			}
+		}
+		return Arrays.stream(found)
+			.map(StateCodeBitmap::states)
+			.collect(Collectors.toList());
+	}
+
+	public Collection<String> getStates(Path persons) throws IOException {
+		if (persons == null) {
+			return new ArrayList<>();
+		}
+		return new PersonFileScanner().getStates(persons, AGE_LIMIT_FILTER, POPULATION_LIMIT_FILTER);
+	}
+
+	static String eligibleState(Person person) {
+		if (person == null || person.getAge() == null || person.getAge() < AGE_LIMIT_FILTER) {
+			return null;
+		}
+		City city = person.getAddress() == null ? null : person.getAddress().getCity();
+		if (city == null || city.getPopulation() == null || city.getPopulation() < POPULATION_LIMIT_FILTER) {
+			return null;
+		}
+		return city.getState() == null ? null : city.getState().getName();
+	}
+
+	private Stream<String> eligibleStates(Stream<Person> persons) {
+		return persons
 			.filter(person -> person.getAge() != null && person.getAge() >= AGE_LIMIT_FILTER)
 			.map(Person::getAddress)
 			.map(Address::getCity)
 			.filter(city -> city.getPopulation() != null && city.getPopulation() >= POPULATION_LIMIT_FILTER)
 			.map(City::getState)
+			.map(State::getName);
+	}
+
+	public Collection<String> getStates(PersonColumns persons) {
+		if (persons == null) {
+			return new ArrayList<>();
+		}
+		int ageLimit = AGE_LIMIT_FILTER;
+		int[] statesByCity = persons.statesByCity(POPULATION_LIMIT_FILTER);
+		boolean[] found = new boolean[persons.stateCount()];
+		for (int row = 0; row < persons.size(); row++) {
+			int city = persons.cityId(row);
+			if (persons.age(row) >= ageLimit && city != PersonTable.NO_CITY && statesByCity[city] != PersonTable.NO_STATE) {
+				found[statesByCity[city]] = true;
+			}
+		}
+		return persons.stateNames(found);
+	}
+}
+
+class PersonRegistry {
+
+	private final StatesIndex index = new StatesIndex();
+	private volatile Snapshot snapshot = new Snapshot(0, Collections.emptyList());
+
+	// readers only read the volatile snapshot, writers are serialized and publish a new one per batch
+	public Snapshot snapshot() {
+		return snapshot;
+	}
+
+	public synchronized Snapshot apply(Batch batch) {
+		List<Change> changes = batch.changes;
+		for (int applied = 0; applied < changes.size(); applied++) {
+			try {
+				changes.get(applied).apply(index);
+			} catch (RuntimeException e) {
+				for (int undone = applied - 1; undone >= 0; undone--) {
+					changes.get(undone).revert(index);
+				}
+				throw e;
+			}
+		}
+		snapshot = new Snapshot(snapshot.getVersion() + 1, Collections.unmodifiableList(new ArrayList<>(index.getStates())));
+		return snapshot;
+	}
+
+	static class Snapshot {
+
+		private final long version;
+		private final List<String> states;
+
+		Snapshot(long version, List<String> states) {
+			this.version = version;
+			this.states = states;
+		}
+
+		public long getVersion() {
+			return version;
+		}
+
+		public List<String> getStates() {
+			return states;
+		}
+	}
+
+	static class Batch {
+
+		private final List<Change> changes = new ArrayList<>();
+
+		public Batch add(Person person) {
+			changes.add(new Change(null, person));
+			return this;
+		}
+
+		public Batch remove(Person person) {
+			changes.add(new Change(person, null));
+			return this;
+		}
+
+		public Batch update(Person previous, Person current) {
+			changes.add(new Change(previous, current));
+			return this;
+		}
+	}
+
+	private static class Change {
+
+		private final Person previous;
+		private final Person current;
+
+		Change(Person previous, Person current) {
+			this.previous = previous;
+			this.current = current;
+		}
+
+		void apply(StatesIndex index) {
+			index.update(previous, current);
+		}
+
+		void revert(StatesIndex index) {
+			index.update(current, previous);
+		}
+	}
+}
+
+class StatesQuery {
+
+	public static final StatesQuery DEFAULT = new StatesQuery(PersonService.AGE_LIMIT_FILTER, PersonService.POPULATION_LIMIT_FILTER);
+
+	private final int ageLimit;
+	private final int populationLimit;
+
+	public StatesQuery(int ageLimit, int populationLimit) {
+		this.ageLimit = ageLimit;
+		this.populationLimit = populationLimit;
+	}
+
+	public int getAgeLimit() {
+		return ageLimit;
+	}
+
+	public int getPopulationLimit() {
+		return populationLimit;
+	}
+
+	@Override
+	public String toString() {
+		return "StatesQuery{" +
+			"ageLimit=" + ageLimit +
+			", populationLimit=" + populationLimit +
+			'}';
+	}
+}
+
+class StateCodeBitmap {
+
+	private static final int LETTERS = 26;
+	private static final String[] CODES = new String[LETTERS * LETTERS];
+
+	static {
+		for (int code = 0; code < CODES.length; code++) {
+			CODES[code] = new String(new char[]{(char) ('A' + code / LETTERS), (char) ('A' + code % LETTERS)});
+		}
+	}
+
+	private final long[] words = new long[(CODES.length + Long.SIZE - 1) / Long.SIZE];
+	private Set<String> others;
+
+	// two-letter uppercase codes are kept as bits, in alphabetical order; any other name goes through distinct/sorted
+	public static Collector<String, StateCodeBitmap, List<String>> sortedDistinct() {
+		return Collector.of(StateCodeBitmap::new, StateCodeBitmap::add, StateCodeBitmap::merge, StateCodeBitmap::states, Collector.Characteristics.UNORDERED);
+	}
+
+	static int codeOf(String state) {
+		if (state == null || state.length() != 2) {
+			return -1;
+		}
+		int first = state.charAt(0) - 'A';
+		int second = state.charAt(1) - 'A';
+		if (first < 0 || first >= LETTERS || second < 0 || second >= LETTERS) {
+			return -1;
+		}
+		return first * LETTERS + second;
+	}
+
+	public void add(String state) {
+		int code = codeOf(state);
+		if (code < 0) {
+			if (others == null) {
+				others = new HashSet<>();
+			}
+			others.add(state);
+		} else {
+			words[code / Long.SIZE] |= 1L << code;
+		}
+	}
+
+	public StateCodeBitmap merge(StateCodeBitmap other) {
+		for (int word = 0; word < words.length; word++) {
+			words[word] |= other.words[word];
+		}
+		if (other.others != null) {
+			if (others == null) {
+				others = new HashSet<>();
+			}
+			others.addAll(other.others);
+		}
+		return this;
+	}
+
+	public List<String> states() {
+		List<String> states = new ArrayList<>();
+		for (int word = 0; word < words.length; word++) {
+			for (long bits = words[word]; bits != 0; bits &= bits - 1) {
+				states.add(CODES[word * Long.SIZE + Long.numberOfTrailingZeros(bits)]);
+			}
+		}
+		if (others == null) {
+			return states;
+		}
+		return Stream.concat(states.stream(), others.stream())
+			.sorted()
+			.collect(Collectors.toList());
+	}
+}
+
+interface PersonColumns {
+
+	int size();
+
+	int age(int row);
+
+	int cityId(int row);
+
+	int cityCount();
+
+	int population(int city);
+
+	int stateId(int city);
+
+	int stateCount();
+
+	String stateName(int state);
+
+	// state ids follow the alphabetical order of the names, so a lookup by id is already sorted
+	default int[] statesByCity(int populationLimit) {
+		int[] statesByCity = new int[cityCount()];
+		for (int city = 0; city < statesByCity.length; city++) {
+			int population = population(city);
+			boolean populous = population != PersonTable.NO_VALUE && population >= populationLimit;
+			statesByCity[city] = populous ? stateId(city) : PersonTable.NO_STATE;
+		}
+		return statesByCity;
+	}
+
+	default List<String> stateNames(boolean[] found) {
+		List<String> names = new ArrayList<>();
+		for (int state = 0; state < found.length; state++) {
+			if (found[state]) {
+				names.add(stateName(state));
+			}
+		}
+		return names;
+	}
+}
+
+class PersonTable implements PersonColumns {
+
+	// null ages and populations are stored as NO_VALUE, which never reaches a limit
+	static final int NO_VALUE = Integer.MIN_VALUE;
+	static final int NO_CITY = -1;
+	static final int NO_STATE = -1;
+
+	private final int[] ages;
+	private final int[] cityIds;
+	private final int[] populations;
+	private final int[] stateIds;
+	private final String[] stateNames;
+
+	private PersonTable(int[] ages, int[] cityIds, int[] populations, int[] stateIds, String[] stateNames) {
+		this.ages = ages;
+		this.cityIds = cityIds;
+		this.populations = populations;
+		this.stateIds = stateIds;
+		this.stateNames = stateNames;
+	}
+
+	public static PersonTable of(Collection<Person> persons) {
+		int[] ages = new int[persons.size()];
+		int[] cityIds = new int[persons.size()];
+		Map<City, Integer> cityIdsByCity = new IdentityHashMap<>();
+		List<City> cities = new ArrayList<>();
+		int row = 0;
+		for (Person person : persons) {
+			ages[row] = person.getAge() == null ? NO_VALUE : person.getAge();
+			City city = person.getAddress() == null ? null : person.getAddress().getCity();
+			if (city == null) {
+				cityIds[row] = NO_CITY;
+			} else {
+				Integer cityId = cityIdsByCity.get(city);
+				if (cityId == null) {
+					cityId = cities.size();
+					cityIdsByCity.put(city, cityId);
+					cities.add(city);
+				}
+				cityIds[row] = cityId;
+			}
+			row++;
+		}
+
+		String[] stateNames = cities.stream()
+			.map(City::getState)
+			.filter(state -> state != null && state.getName() != null)
 			.map(State::getName)
 			.distinct()
 			.sorted()
-			.collect(Collectors.toList());
+			.toArray(String[]::new);
+		Map<String, Integer> stateIdsByName = new HashMap<>();
+		for (int state = 0; state < stateNames.length; state++) {
+			stateIdsByName.put(stateNames[state], state);
+		}
+
+		int[] populations = new int[cities.size()];
+		int[] stateIds = new int[cities.size()];
+		for (int city = 0; city < cities.size(); city++) {
+			Integer population = cities.get(city).getPopulation();
+			State state = cities.get(city).getState();
+			populations[city] = population == null ? NO_VALUE : population;
+			stateIds[city] = state == null || state.getName() == null ? NO_STATE : stateIdsByName.get(state.getName());
+		}
+		return new PersonTable(ages, cityIds, populations, stateIds, stateNames);
+	}
+
+	@Override
+	public int size() {
+		return ages.length;
+	}
+
+	@Override
+	public int age(int row) {
+		return ages[row];
+	}
+
+	@Override
+	public int cityId(int row) {
+		return cityIds[row];
+	}
+
+	@Override
+	public int cityCount() {
+		return populations.length;
+	}
+
+	@Override
+	public int population(int city) {
+		return populations[city];
+	}
+
+	@Override
+	public int stateId(int city) {
+		return stateIds[city];
+	}
+
+	@Override
+	public int stateCount() {
+		return stateNames.length;
+	}
+
+	@Override
+	public String stateName(int state) {
+		return stateNames[state];
 	}
 }
 
 
+class MappedPersonTable implements PersonColumns {
+
+	private static final int MAGIC = 0x50455253;
+	private static final int FORMAT_VERSION = 1;
+	private static final int HEADER_SIZE = 6 * Integer.BYTES;
+	private static final int ALIGNMENT = Long.BYTES;
+
+	private final IntBuffer ages;
+	private final IntBuffer cityIds;
+	private final IntBuffer populations;
+	private final IntBuffer stateIds;
+	private final String[] stateNames;
+
+	private MappedPersonTable(IntBuffer ages, IntBuffer cityIds, IntBuffer populations, IntBuffer stateIds, String[] stateNames) {
+		this.ages = ages;
+		this.cityIds = cityIds;
+		this.populations = populations;
+		this.stateIds = stateIds;
+		this.stateNames = stateNames;
+	}
+
+	// header, state dictionary, then the four int columns, each one starting 8-byte aligned
+	public static void write(PersonColumns persons, Path file) throws IOException {
+		try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+			output.writeInt(MAGIC);
+			output.writeInt(FORMAT_VERSION);
+			output.writeInt(persons.size());
+			output.writeInt(persons.cityCount());
+			output.writeInt(persons.stateCount());
+			byte[][] names = new byte[persons.stateCount()][];
+			int dictionarySize = 0;
+			for (int state = 0; state < names.length; state++) {
+				names[state] = persons.stateName(state).getBytes(StandardCharsets.UTF_8);
+				dictionarySize += Integer.BYTES + names[state].length;
+			}
+			output.writeInt(dictionarySize);
+			for (byte[] name : names) {
+				output.writeInt(name.length);
+				output.write(name);
+			}
+			while (output.size() % ALIGNMENT != 0) {
+				output.writeByte(0);
+			}
+			for (int row = 0; row < persons.size(); row++) {
+				output.writeInt(persons.age(row));
+			}
+			for (int row = 0; row < persons.size(); row++) {
+				output.writeInt(persons.cityId(row));
+			}
+			for (int city = 0; city < persons.cityCount(); city++) {
+				output.writeInt(persons.population(city));
+			}
+			for (int city = 0; city < persons.cityCount(); city++) {
+				output.writeInt(persons.stateId(city));
+			}
+		}
+	}
+
+	public static MappedPersonTable open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_SIZE) {
+				throw new IOException(file + " is not a person table snapshot");
+			}
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) {
+				throw new IOException(file + " is not a person table snapshot");
+			}
+			int size = header.getInt();
+			int cityCount = header.getInt();
+			int stateCount = header.getInt();
+			int dictionarySize = header.getInt();
+			if (size < 0 || cityCount < 0 || stateCount < 0 || dictionarySize < 0 || channel.size() < HEADER_SIZE + (long) dictionarySize) {
+				throw new IOException(file + " is truncated or corrupted");
+			}
+			String[] stateNames = new String[stateCount];
+
+			ByteBuffer dictionary = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, dictionarySize);
+			try {
+				for (int state = 0; state < stateNames.length; state++) {
+					byte[] name = new byte[dictionary.getInt()];
+					dictionary.get(name);
+					stateNames[state] = new String(name, StandardCharsets.UTF_8);
+				}
+			} catch (BufferUnderflowException | NegativeArraySizeException e) {
+				throw new IOException(file + " is truncated or corrupted", e);
+			}
+			long offset = (HEADER_SIZE + (long) dictionarySize + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+			long columnsSize = 2L * Integer.BYTES * (size + (long) cityCount);
+			if (channel.size() != offset + columnsSize) {
+				throw new IOException(file + " is truncated or corrupted");
+			}
+
+			IntBuffer ages = column(channel, offset, size);
+			IntBuffer cityIds = column(channel, offset + (long) Integer.BYTES * size, size);
+			IntBuffer populations = column(channel, offset + 2L * Integer.BYTES * size, cityCount);
+			IntBuffer stateIds = column(channel, offset + 2L * Integer.BYTES * size + (long) Integer.BYTES * cityCount, cityCount);
+			// queries index arrays with these ids, so a corrupted one has to fail here and not as an ArrayIndexOutOfBoundsException later
+			if (!inRange(cityIds, PersonTable.NO_CITY, cityCount) || !inRange(stateIds, PersonTable.NO_STATE, stateCount)) {
+				throw new IOException(file + " is truncated or corrupted");
+			}
+			return new MappedPersonTable(ages, cityIds, populations, stateIds, stateNames);
+		}
+	}
+
+	private static IntBuffer column(FileChannel channel, long offset, int length) throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, offset, (long) Integer.BYTES * length).asIntBuffer();
+	}
+
+	private static boolean inRange(IntBuffer ids, int missing, int count) {
+		for (int index = 0; index < ids.limit(); index++) {
+			int id = ids.get(index);
+			if (id < missing || id >= count) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int size() {
+		return ages.limit();
+	}
+
+	@Override
+	public int age(int row) {
+		return ages.get(row);
+	}
+
+	@Override
+	public int cityId(int row) {
+		return cityIds.get(row);
+	}
+
+	@Override
+	public int cityCount() {
+		return populations.limit();
+	}
+
+	@Override
+	public int population(int city) {
+		return populations.get(city);
+	}
+
+	@Override
+	public int stateId(int city) {
+		return stateIds.get(city);
+	}
+
+	@Override
+	public int stateCount() {
+		return stateNames.length;
+	}
+
+	@Override
+	public String stateName(int state) {
+		return stateNames[state];
+	}
+}
+
+class PersonAgeIndex {
+
+	private final PersonColumns table;
+	private final int[] ages;
+	private final int[] cityIds;
+
+	private PersonAgeIndex(PersonColumns table, int[] ages, int[] cityIds) {
+		this.table = table;
+		this.ages = ages;
+		this.cityIds = cityIds;
+	}
+
+	public static PersonAgeIndex of(PersonColumns table) {
+		// age in the high half and row in the low half, so one primitive sort orders rows by age
+		long[] keys = new long[table.size()];
+		for (int row = 0; row < keys.length; row++) {
+			keys[row] = (long) table.age(row) << Integer.SIZE | row;
+		}
+		Arrays.sort(keys);
+		int[] ages = new int[keys.length];
+		int[] cityIds = new int[keys.length];
+		for (int index = 0; index < keys.length; index++) {
+			int row = (int) keys[index];
+			ages[index] = table.age(row);
+			cityIds[index] = table.cityId(row);
+		}
+		return new PersonAgeIndex(table, ages, cityIds);
+	}
+
+	public PersonColumns table() {
+		return table;
+	}
+
+	public int size() {
+		return ages.length;
+	}
+
+	public int age(int index) {
+		return ages[index];
+	}
+
+	public int cityId(int index) {
+		return cityIds[index];
+	}
+
+	public int firstAtLeast(int ageLimit) {
+		int limit = Math.max(ageLimit, PersonTable.NO_VALUE + 1);
+		int low = 0;
+		int high = ages.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (ages[middle] < limit) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
+
+class PersonFileScanner {
+
+	static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+	private static final int ROOT = 0;
+	private static final int ADDRESS = 1;
+	private static final int CITY = 2;
+	private static final int STATE = 3;
+	private static final int OTHER = 4;
+
+	private static final byte[] AGE = "age".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] ADDRESS_KEY = "address".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] CITY_KEY = "city".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] POPULATION = "population".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] STATE_KEY = "state".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] NAME = "name".getBytes(StandardCharsets.UTF_8);
+
+	private final int windowSize;
+	private ByteBuffer buffer;
+	private int position;
+	private int end;
+	private int age;
+	private int population;
+	private int stateStart;
+	private int stateEnd;
+
+	PersonFileScanner() {
+		this(WINDOW_SIZE);
+	}
+
+	PersonFileScanner(int windowSize) {
+		this.windowSize = windowSize;
+	}
+
+	// one person per line, only "age", "address.city.population" and "address.city.state.name" are parsed
+	public Collection<String> getStates(Path file, int ageLimit, int populationLimit) throws IOException {
+		Set<String> states = new TreeSet<>();
+		List<byte[]> found = new ArrayList<>();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			long offset = 0;
+			while (offset < size) {
+				int length = (int) Math.min(windowSize, size - offset);
+				boolean lastWindow = offset + length == size;
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+				int lineStart = 0;
+				for (int index = 0; index < length; index++) {
+					if (buffer.get(index) == '\n') {
+						scan(lineStart, index, ageLimit, populationLimit, states, found);
+						lineStart = index + 1;
+					}
+				}
+				if (lastWindow && lineStart < length) {
+					scan(lineStart, length, ageLimit, populationLimit, states, found);
+					lineStart = length;
+				} else if (lineStart == 0) {
+					throw new IOException("person record at byte " + offset + " is longer than " + windowSize + " bytes");
+				}
+				offset += lineStart;
+			}
+		} finally {
+			buffer = null;
+		}
+		return new ArrayList<>(states);
+	}
+
+	private void scan(int start, int end, int ageLimit, int populationLimit, Set<String> states, List<byte[]> found) throws IOException {
+		this.position = start;
+		this.end = end;
+		this.age = PersonTable.NO_VALUE;
+		this.population = PersonTable.NO_VALUE;
+		this.stateStart = -1;
+		skipWhitespace();
+		if (position == end) {
+			return;
+		}
+		value(ROOT);
+		skipWhitespace();
+		if (position != end) {
+			throw malformed();
+		}
+		if (age >= ageLimit && population >= populationLimit && stateStart >= 0 && !contains(found)) {
+			found.add(stateBytes());
+			states.add(decode(stateBytes()));
+		}
+	}
+
+	private void value(int context) throws IOException {
+		skipWhitespace();
+		byte next = peek();
+		if (next == '{') {
+			object(context);
+		} else if (next == '[') {
+			array();
+		} else if (next == '"') {
+			string();
+		} else {
+			while (position < end && !isDelimiter(buffer.get(position))) {
+				position++;
+			}
+		}
+	}
+
+	private void object(int context) throws IOException {
+		position++;
+		skipWhitespace();
+		if (peek() == '}') {
+			position++;
+			return;
+		}
+		while (true) {
+			skipWhitespace();
+			if (peek() != '"') {
+				throw malformed();
+			}
+			int keyStart = position + 1;
+			string();
+			int keyEnd = position - 1;
+			skipWhitespace();
+			if (peek() != ':') {
+				throw malformed();
+			}
+			position++;
+			skipWhitespace();
+			if (context == ROOT && isKey(keyStart, keyEnd, AGE)) {
+				age = number();
+			} else if (context == ROOT && isKey(keyStart, keyEnd, ADDRESS_KEY)) {
+				value(ADDRESS);
+			} else if (context == ADDRESS && isKey(keyStart, keyEnd, CITY_KEY)) {
+				value(CITY);
+			} else if (context == CITY && isKey(keyStart, keyEnd, POPULATION)) {
+				population = number();
+			} else if (context == CITY && isKey(keyStart, keyEnd, STATE_KEY)) {
+				value(STATE);
+			} else if (context == STATE && isKey(keyStart, keyEnd, NAME)) {
+				stateName();
+			} else {
+				value(OTHER);
+			}
+			skipWhitespace();
+			byte next = peek();
+			position++;
+			if (next == '}') {
+				return;
+			}
+			if (next != ',') {
+				throw malformed();
+			}
+		}
+	}
+
+	private void array() throws IOException {
+		position++;
+		skipWhitespace();
+		if (peek() == ']') {
+			position++;
+			return;
+		}
+		while (true) {
+			value(OTHER);
+			skipWhitespace();
+			byte next = peek();
+			position++;
+			if (next == ']') {
+				return;
+			}
+			if (next != ',') {
+				throw malformed();
+			}
+		}
+	}
+
+	private void string() throws IOException {
+		position++;
+		while (true) {
+			byte next = peek();
+			position++;
+			if (next == '\\') {
+				peek();
+				position++;
+			} else if (next == '"') {
+				return;
+			}
+		}
+	}
+
+	private void stateName() throws IOException {
+		if (peek() == '"') {
+			stateStart = position + 1;
+			string();
+			stateEnd = position - 1;
+		} else {
+			value(OTHER);
+			stateStart = -1;
+		}
+	}
+
+	private int number() throws IOException {
+		int start = position;
+		value(OTHER);
+		if (position - start == 4 && buffer.get(start) == 'n') {
+			return PersonTable.NO_VALUE;
+		}
+		boolean negative = buffer.get(start) == '-';
+		int index = negative ? start + 1 : start;
+		if (index == position) {
+			throw malformed();
+		}
+		long number = 0;
+		for (; index < position; index++) {
+			byte digit = buffer.get(index);
+			if (digit < '0' || digit > '9' || number > Integer.MAX_VALUE) {
+				throw malformed();
+			}
+			number = number * 10 + digit - '0';
+		}
+		number = negative ? -number : number;
+		if (number < Integer.MIN_VALUE || number > Integer.MAX_VALUE) {
+			throw malformed();
+		}
+		return (int) number;
+	}
+
+	private boolean isKey(int start, int end, byte[] key) {
+		if (end - start != key.length) {
+			return false;
+		}
+		for (int index = 0; index < key.length; index++) {
+			if (buffer.get(start + index) != key[index]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean contains(List<byte[]> found) {
+		for (byte[] state : found) {
+			if (isKey(stateStart, stateEnd, state)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private byte[] stateBytes() {
+		return bytes(stateStart, stateEnd);
+	}
+
+	private byte[] bytes(int start, int end) {
+		byte[] bytes = new byte[end - start];
+		for (int index = 0; index < bytes.length; index++) {
+			bytes[index] = buffer.get(start + index);
+		}
+		return bytes;
+	}
+
+	private String decode(byte[] raw) throws IOException {
+		String text = new String(raw, StandardCharsets.UTF_8);
+		if (text.indexOf('\\') < 0) {
+			return text;
+		}
+		StringBuilder decoded = new StringBuilder(text.length());
+		for (int index = 0; index < text.length(); index++) {
+			char next = text.charAt(index);
+			if (next != '\\') {
+				decoded.append(next);
+				continue;
+			}
+			char escaped = text.charAt(++index);
+			switch (escaped) {
+				case 'b': decoded.append('\b'); break;
+				case 'f': decoded.append('\f'); break;
+				case 'n': decoded.append('\n'); break;
+				case 'r': decoded.append('\r'); break;
+				case 't': decoded.append('\t'); break;
+				case 'u':
+					try {
+						decoded.append((char) Integer.parseInt(text.substring(index + 1, index + 5), 16));
+					} catch (NumberFormatException | IndexOutOfBoundsException e) {
+						throw malformed();
+					}
+					index += 4;
+					break;
+				default: decoded.append(escaped);
+			}
+		}
+		return decoded.toString();
+	}
+
+	private void skipWhitespace() {
+		while (position < end) {
+			byte next = buffer.get(position);
+			if (next != ' ' && next != '\t' && next != '\r') {
+				return;
+			}
+			position++;
+		}
+	}
+
+	private byte peek() throws IOException {
+		if (position >= end) {
+			throw malformed();
+		}
+		return buffer.get(position);
+	}
+
+	private static boolean isDelimiter(byte next) {
+		return next == ',' || next == '}' || next == ']' || next == ' ' || next == '\t' || next == '\r';
+	}
+
+	private IOException malformed() {
+		return new IOException("malformed person record near byte " + position);
+	}
+}
+
+class StatesIndex {
+
+	private final Map<String, int[]> counts = new TreeMap<>();
+
+	public void add(Person person) {
+		String state = PersonService.eligibleState(person);
+		if (state != null) {
+			counts.computeIfAbsent(state, it -> new int[1])[0]++;
+		}
+	}
+
+	public void remove(Person person) {
+		String state = PersonService.eligibleState(person);
+		if (state == null) {
+			return;
+		}
+		int[] count = counts.get(state);
+		if (count == null) {
+			throw new IllegalArgumentException("person is not indexed");
+		}
+		if (--count[0] == 0) {
+			counts.remove(state);
+		}
+	}
+
+	public void update(Person previous, Person current) {
+		remove(previous);
+		add(current);
+	}
+
+	public int count(String state) {
+		int[] count = counts.get(state);
+		return count == null ? 0 : count[0];
+	}
+
+	public Collection<String> getStates() {
+		return new ArrayList<>(counts.keySet());
+	}
+}
+
 public class UC01 {
 
 	private PersonService personService = new PersonService();
@@ -183,4 +1249,324 @@ public class UC01 {
 		Collection<String> states = personService.getStates(persons);
 		Assertions.assertTrue(states.isEmpty());
 	}
+
+	@Test
+	public void UC01_08() {
+		Collection<Person> persons = Arrays.asList(
+			new Person("André Justi", PersonService.AGE_LIMIT_FILTER + 10, new Address("Padre Chagas", new City("Florianópolis", PersonService.POPULATION_LIMIT_FILTER + 1, new State("SC")))),
+			new Person("Wellington Macedo", PersonService.AGE_LIMIT_FILTER + 1, new Address("Miguel Dutra", new City("Palhoça", PersonService.POPULATION_LIMIT_FILTER - 1, new State("SC")))),
+			new Person("Paulo Gustavo", PersonService.AGE_LIMIT_FILTER + 1, new Address("Jose Angelo Peti", new City("Druta", PersonService.POPULATION_LIMIT_FILTER - 1, new State("SP")))),
+			new Person("Maycow Antunes", PersonService.AGE_LIMIT_FILTER + 1, new Address("Dona Ema", new City("Rio Negrinho", PersonService.POPULATION_LIMIT_FILTER + 1, new State("RJ"))))
+		);
+		Collection<String> states = personService.getStates(PersonTable.of(persons));
+		Assertions.assertEquals(personService.getStates(persons), states);
+		Assertions.assertEquals(Arrays.asList("RJ", "SC"), states);
+	}
+
+	@Test
+	public void UC01_09() {
+		City cosmopolis = new City("Cosmopolis", PersonService.POPULATION_LIMIT_FILTER + 1, new State("SP"));
+		Collection<Person> persons = Arrays.asList(
+			new Person("André Justi", null, null),
+			new Person("Paulo Gustavo", PersonService.AGE_LIMIT_FILTER - 1, new Address("Doutor Carlos Maia", cosmopolis)),
+			new Person("Maycow Antunes", PersonService.AGE_LIMIT_FILTER, new Address("Dona Ema", new City("Rio Negrinho", null, new State("SC")))),
+			new Person("Wellington Macedo", PersonService.AGE_LIMIT_FILTER, new Address("Miguel Dutra", cosmopolis))
+		);
+		PersonTable table = PersonTable.of(persons);
+		Assertions.assertEquals(2, table.cityCount());
+		Assertions.assertEquals(Arrays.asList("SP"), personService.getStates(table));
+	}
+
+	@Test
+	public void UC01_10() {
+		Collection<Person> persons = Arrays.asList(
+			new Person("André Justi", PersonService.AGE_LIMIT_FILTER + 10, new Address("Padre Chagas", new City("Florianópolis", PersonService.POPULATION_LIMIT_FILTER + 1, new State("SC")))),
+			new Person("Wellington Macedo", PersonService.AGE_LIMIT_FILTER + 1, new Address("Miguel Dutra", new City("Palhoça", PersonService.POPULATION_LIMIT_FILTER - 1, new State("SC")))),
+			new Person("Paulo Gustavo", PersonService.AGE_LIMIT_FILTER + 1, new Address("Jose Angelo Peti", new City("Druta", PersonService.POPULATION_LIMIT_FILTER - 1, new State("SP")))),
+			new Person("Maycow Antunes", PersonService.AGE_LIMIT_FILTER + 1, new Address("Dona Ema", new City("Rio Negrinho", PersonService.POPULATION_LIMIT_FILTER + 1, new State("RJ"))))
+		);
+		Collection<String> states = personService.getStatesInParallel(persons);
+		Assertions.assertEquals(personService.getStates(persons), states);
+	}
+
+	@Test
+	public void UC01_11() {
+		List<State> available = Arrays.asList(new State("SP"), new State("RJ"), new State("SC"), new State("PR"));
+		Collection<Person> persons = IntStream.range(0, PersonService.PARALLEL_THRESHOLD * 3)
+			.mapToObj(it -> new Person(
+				"Person " + it,
+				it % 3 == 0 ? PersonService.AGE_LIMIT_FILTER : PersonService.AGE_LIMIT_FILTER - 1,
+				new Address("Street " + it, new City("City " + it, it % 4 == 3 ? PersonService.POPULATION_LIMIT_FILTER - 1 : PersonService.POPULATION_LIMIT_FILTER, available.get(it % 4)))))
+			.collect(Collectors.toList());
+		Collection<String> states = personService.getStates(persons);
+		Assertions.assertEquals(Arrays.asList("RJ", "SC", "SP"), states);
+	}
+
+	@Test
+	public void UC01_12() throws IOException {
+		Path file = Files.createTempFile("persons", ".ndjson");
+		try {
+			Files.write(file, Arrays.asList(
+				toJson("André Justi", PersonService.AGE_LIMIT_FILTER + 10, "Florianópolis", PersonService.POPULATION_LIMIT_FILTER + 1, "SC"),
+				toJson("Wellington Macedo", PersonService.AGE_LIMIT_FILTER + 1, "Palhoça", PersonService.POPULATION_LIMIT_FILTER - 1, "SC"),
+				toJson("Paulo Gustavo", PersonService.AGE_LIMIT_FILTER + 1, "Druta", PersonService.POPULATION_LIMIT_FILTER - 1, "SP"),
+				toJson("Maycow Antunes", PersonService.AGE_LIMIT_FILTER + 1, "Rio Negrinho", PersonService.POPULATION_LIMIT_FILTER + 1, "RJ")
+			), StandardCharsets.UTF_8);
+			Assertions.assertEquals(Arrays.asList("RJ", "SC"), personService.getStates(file));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void UC01_13() throws IOException {
+		Path file = Files.createTempFile("persons", ".ndjson");
+		try {
+			Files.write(file, Arrays.asList(
+				"{\"name\":\"André Justi\",\"age\":null,\"address\":null}",
+				"",
+				"{\"address\": {\"city\": {\"state\": {\"name\": \"P\\u0052\"}, \"tags\": [1, {\"population\": 1}], \"population\": 100000}}, \"age\": 18}",
+				toJson("Paulo Gustavo", PersonService.AGE_LIMIT_FILTER - 1, "Cosmopolis", PersonService.POPULATION_LIMIT_FILTER + 1, "SP"),
+				toJson("Maycow Antunes", PersonService.AGE_LIMIT_FILTER + 1, "Rio Negrinho", PersonService.POPULATION_LIMIT_FILTER + 1, "RJ"),
+				toJson("Wellington Macedo", PersonService.AGE_LIMIT_FILTER + 1, "Niterói", PersonService.POPULATION_LIMIT_FILTER + 1, "RJ")
+			), StandardCharsets.UTF_8);
+			Collection<String> states = new PersonFileScanner(256).getStates(file, PersonService.AGE_LIMIT_FILTER, PersonService.POPULATION_LIMIT_FILTER);
+			Assertions.assertEquals(Arrays.asList("PR", "RJ"), states);
+			Assertions.assertThrows(IOException.class, () -> new PersonFileScanner(16).getStates(file, PersonService.AGE_LIMIT_FILTER, PersonService.POPULATION_LIMIT_FILTER));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	private static String toJson(String name, Integer age, String city, Integer population, String state) {
+		return "{\"name\":\"" + name + "\",\"age\":" + age + ",\"address\":{\"street\":\"\",\"city\":{\"name\":\"" + city
+			+ "\",\"population\":" + population + ",\"state\":{\"name\":\"" + state + "\"}}}}";
+	}
+
+	@Test
+	public void UC01_14() {
+		Person andre = new Person("André Justi", PersonService.AGE_LIMIT_FILTER + 10, new Address("Padre Chagas", new City("Florianópolis", PersonService.POPULATION_LIMIT_FILTER + 1, new State("SC"))));
+		Person wellington = new Person("Wellington Macedo", PersonService.AGE_LIMIT_FILTER + 1, new Address("Miguel Dutra", new City("Palhoça", PersonService.POPULATION_LIMIT_FILTER - 1, new State("SC"))));
+		Person paulo = new Person("Paulo Gustavo", PersonService.AGE_LIMIT_FILTER + 1, new Address("Jose Angelo Peti", new City("Druta", PersonService.POPULATION_LIMIT_FILTER - 1, new State("SP"))));
+		Person maycow = new Person("Maycow Antunes", PersonService.AGE_LIMIT_FILTER + 1, new Address("Dona Ema", new City("Rio Negrinho", PersonService.POPULATION_LIMIT_FILTER + 1, new State("RJ"))));
+		StatesIndex index = new StatesIndex();
+		Arrays.asList(andre, wellington, paulo, maycow, new Person("André Justi", null, null)).forEach(index::add);
+		Assertions.assertEquals(Arrays.asList("RJ", "SC"), index.getStates());
+
+		index.remove(andre);
+		Assertions.assertEquals(Arrays.asList("RJ"), index.getStates());
+
+		index.update(paulo, new Person("Paulo Gustavo", PersonService.AGE_LIMIT_FILTER + 1, new Address("Jose Angelo Peti", new City("São Paulo", PersonService.POPULATION_LIMIT_FILTER, new State("SP")))));
+		index.update(maycow, new Person("Maycow Antunes", PersonService.AGE_LIMIT_FILTER - 1, maycow.getAddress()));
+		Assertions.assertEquals(Arrays.asList("SP"), index.getStates());
+		Assertions.assertEquals(1, index.count("SP"));
+	}
+
+	@Test
+	public void UC01_15() {
+		StatesIndex index = new StatesIndex();
+		Person andre = new Person("André Justi", PersonService.AGE_LIMIT_FILTER + 10, new Address("Padre Chagas", new City("Florianópolis", PersonService.POPULATION_LIMIT_FILTER + 1, new State("SC"))));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> index.remove(andre));
+	}
+
+	@Test
+	public void UC01_16() {
+		List<String> states = Stream.of("SC", "RJ", "ZZ", "Santa Catarina", "AA", "SC", "rj", "RJ")
+			.collect(StateCodeBitmap.sortedDistinct());
+		Assertions.assertEquals(Arrays.asList("AA", "RJ", "SC", "Santa Catarina", "ZZ", "rj"), states);
+		Assertions.assertEquals(Arrays.asList("AC", "RJ", "SC"), Stream.of("SC", "RJ", "AC", "SC").parallel().collect(StateCodeBitmap.sortedDistinct()));
+	}
+
+	@Test
+	public void UC01_17() {
+		Collection<Person> persons = Arrays.asList(
+			new Person("André Justi", PersonService.AGE_LIMIT_FILTER + 10, new Address("Padre Chagas", new City("Florianópolis", PersonService.POPULATION_LIMIT_FILTER + 1, new State("SC")))),
+			new Person("Paulo Gustavo", PersonService.AGE_LIMIT_FILTER + 1, new Address("Jose Angelo Peti", new City("São Paulo", PersonService.POPULATION_LIMIT_FILTER + 1, new State("São Paulo")))),
+			new Person("Maycow Antunes", PersonService.AGE_LIMIT_FILTER + 1, new Address("Dona Ema", new City("Rio Negrinho", PersonService.POPULATION_LIMIT_FILTER + 1, new State("RJ"))))
+		);
+		Assertions.assertEquals(Arrays.asList("RJ", "SC", "São Paulo"), personService.getStates(persons));
+		Assertions.assertEquals(Arrays.asList("RJ", "SC", "São Paulo"), personService.getStatesInParallel(persons));
+	}
+
+	@Test
+	public void UC01_18() {
+		Collection<Person> persons = Arrays.asList(
+			new Person("André Justi", PersonService.AGE_LIMIT_FILTER + 10, new Address("Padre Chagas", new City("Florianópolis", PersonService.POPULATION_LIMIT_FILTER + 1, new State("SC")))),
+			new Person("Wellington Macedo", PersonService.AGE_LIMIT_FILTER + 1, new Address("Miguel Dutra", new City("Palhoça", PersonService.POPULATION_LIMIT_FILTER - 1, new State("SC")))),
+			new Person("Paulo Gustavo", PersonService.AGE_LIMIT_FILTER + 1, new Address("Jose Angelo Peti", new City("Druta", PersonService.POPULATION_LIMIT_FILTER - 1, new State("SP")))),
+			new Person("Maycow Antunes", PersonService.AGE_LIMIT_FILTER + 1, new Address("Dona Ema", new City("Rio Negrinho", PersonService.POPULATION_LIMIT_FILTER + 1, new State("RJ")))),
+			new Person("Maria Silva", null, null)
+		);
+		List<Collection<String>> states = personService.getStates(persons, Arrays.asList(
+			StatesQuery.DEFAULT,
+			new StatesQuery(0, 0),
+			new StatesQuery(PersonService.AGE_LIMIT_FILTER + 2, 0),
+			new StatesQuery(0, PersonService.POPULATION_LIMIT_FILTER * 2)
+		));
+		Assertions.assertEquals(Arrays.asList(
+			personService.getStates(persons),
+			Arrays.asList("RJ", "SC", "SP"),
+			Arrays.asList("SC"),
+			Arrays.asList()
+		), states);
+	}
+
+	@Test
+	public void UC01_19() {
+		Collection<Person> persons = Arrays.asList(
+			new Person("André Justi", PersonService.AGE_LIMIT_FILTER + 10, new Address("Padre Chagas", new City("Florianópolis", PersonService.POPULATION_LIMIT_FILTER + 1, new State("SC")))),
+			new Person("Wellington Macedo", PersonService.AGE_LIMIT_FILTER + 1, new Address("Miguel Dutra", new City("Palhoça", PersonService.POPULATION_LIMIT_FILTER - 1, new State("SC")))),
+			new Person("Paulo Gustavo", PersonService.AGE_LIMIT_FILTER + 1, new Address("Jose Angelo Peti", new City("Druta", PersonService.POPULATION_LIMIT_FILTER - 1, new State("SP")))),
+			new Person("Maycow Antunes", PersonService.AGE_LIMIT_FILTER + 1, new Address("Dona Ema", new City("Rio Negrinho", PersonService.POPULATION_LIMIT_FILTER + 1, new State("RJ")))),
+			new Person("Maria Silva", null, null)
+		);
+		PersonAgeIndex index = PersonAgeIndex.of(PersonTable.of(persons));
+		Assertions.assertEquals(personService.getStates(persons), personService.getStates(index));
+		Assertions.assertEquals(Arrays.asList("RJ", "SC", "SP"), personService.getStates(index, new StatesQuery(Integer.MIN_VALUE, 0)));
+		Assertions.assertEquals(Arrays.asList("SC"), personService.getStates(index, new StatesQuery(PersonService.AGE_LIMIT_FILTER + 2, 0)));
+		Assertions.assertEquals(Arrays.asList(), personService.getStates(index, new StatesQuery(PersonService.AGE_LIMIT_FILTER + 11, 0)));
+		Assertions.assertEquals(1, index.firstAtLeast(PersonService.AGE_LIMIT_FILTER));
+	}
+
+	@Test
+	public void UC01_20() {
+		ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+		Assumptions.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+		List<City> cities = Arrays.asList(
+			new City("Florianópolis", PersonService.POPULATION_LIMIT_FILTER + 1, new State("SC")),
+			new City("Palhoça", PersonService.POPULATION_LIMIT_FILTER - 1, new State("SC")),
+			new City("Rio Negrinho", PersonService.POPULATION_LIMIT_FILTER + 1, new State("RJ"))
+		);
+		Collection<Person> persons = IntStream.range(0, PersonService.PARALLEL_THRESHOLD - 1)
+			.mapToObj(it -> new Person("Person " + it, it % 50, new Address("Street " + it, cities.get(it % cities.size()))))
+			.collect(Collectors.toList());
+		for (int it = 0; it < 200; it++) {
+			personService.getStates(persons);
+		}
+
+		int calls = 100;
+		long threadId = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(threadId);
+		for (int it = 0; it < calls; it++) {
+			personService.getStates(persons);
+		}
+		long allocatedPerCall = (threads.getThreadAllocatedBytes(threadId) - before) / calls;
+
+		Assertions.assertEquals(Arrays.asList("RJ", "SC"), personService.getStates(persons));
+		Assertions.assertTrue(allocatedPerCall < 512, "getStates allocated " + allocatedPerCall + " bytes per call over " + persons.size() + " persons");
+	}
+
+	@Test
+	public void UC01_21() {
+		Person andre = new Person("André Justi", PersonService.AGE_LIMIT_FILTER + 10, new Address("Padre Chagas", new City("Florianópolis", PersonService.POPULATION_LIMIT_FILTER + 1, new State("SC"))));
+		Person maycow = new Person("Maycow Antunes", PersonService.AGE_LIMIT_FILTER + 1, new Address("Dona Ema", new City("Rio Negrinho", PersonService.POPULATION_LIMIT_FILTER + 1, new State("RJ"))));
+		Person paulo = new Person("Paulo Gustavo", PersonService.AGE_LIMIT_FILTER + 1, new Address("Jose Angelo Peti", new City("São Paulo", PersonService.POPULATION_LIMIT_FILTER + 1, new State("SP"))));
+		PersonRegistry registry = new PersonRegistry();
+		registry.apply(new PersonRegistry.Batch().add(andre).add(maycow));
+		PersonRegistry.Snapshot first = registry.snapshot();
+
+		registry.apply(new PersonRegistry.Batch().remove(andre).add(paulo));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> registry.apply(new PersonRegistry.Batch().remove(maycow).remove(andre)));
+
+		Assertions.assertEquals(1, first.getVersion());
+		Assertions.assertEquals(Arrays.asList("RJ", "SC"), first.getStates());
+		Assertions.assertEquals(2, registry.snapshot().getVersion());
+		Assertions.assertEquals(Arrays.asList("RJ", "SP"), personService.getStates(registry));
+		Assertions.assertEquals(Arrays.asList("SP"), registry.apply(new PersonRegistry.Batch().remove(maycow)).getStates());
+	}
+
+	@Test
+	public void UC01_22() throws Exception {
+		Person andre = new Person("André Justi", PersonService.AGE_LIMIT_FILTER + 10, new Address("Padre Chagas", new City("Florianópolis", PersonService.POPULATION_LIMIT_FILTER + 1, new State("SC"))));
+		Person paulo = new Person("Paulo Gustavo", PersonService.AGE_LIMIT_FILTER + 1, new Address("Jose Angelo Peti", new City("São Paulo", PersonService.POPULATION_LIMIT_FILTER + 1, new State("SP"))));
+		Person maycow = new Person("Maycow Antunes", PersonService.AGE_LIMIT_FILTER + 1, new Address("Dona Ema", new City("Rio Negrinho", PersonService.POPULATION_LIMIT_FILTER + 1, new State("RJ"))));
+		PersonRegistry registry = new PersonRegistry();
+		registry.apply(new PersonRegistry.Batch().add(andre));
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> readers = new ArrayList<>();
+			for (int reader = 0; reader < 3; reader++) {
+				readers.add(executor.submit(() -> {
+					long version = 0;
+					while (version < 2001) {
+						PersonRegistry.Snapshot snapshot = registry.snapshot();
+						Assertions.assertTrue(snapshot.getVersion() >= version);
+						Assertions.assertEquals(snapshot.getVersion() % 2 == 1 ? Arrays.asList("SC") : Arrays.asList("RJ", "SC", "SP"), snapshot.getStates());
+						version = snapshot.getVersion();
+					}
+				}));
+			}
+			Future<?> writer = executor.submit(() -> {
+				for (int batch = 0; batch < 1000; batch++) {
+					registry.apply(new PersonRegistry.Batch().add(paulo).add(maycow));
+					registry.apply(new PersonRegistry.Batch().remove(maycow).remove(paulo));
+				}
+			});
+			writer.get(30, TimeUnit.SECONDS);
+			for (Future<?> reader : readers) {
+				reader.get(30, TimeUnit.SECONDS);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void UC01_23() throws IOException {
+		Collection<Person> persons = Arrays.asList(
+			new Person("André Justi", PersonService.AGE_LIMIT_FILTER + 10, new Address("Padre Chagas", new City("Florianópolis", PersonService.POPULATION_LIMIT_FILTER + 1, new State("SC")))),
+			new Person("Wellington Macedo", PersonService.AGE_LIMIT_FILTER + 1, new Address("Miguel Dutra", new City("Palhoça", PersonService.POPULATION_LIMIT_FILTER - 1, new State("SC")))),
+			new Person("Paulo Gustavo", PersonService.AGE_LIMIT_FILTER + 1, new Address("Jose Angelo Peti", new City("Druta", PersonService.POPULATION_LIMIT_FILTER - 1, new State("São Paulo")))),
+			new Person("Maycow Antunes", PersonService.AGE_LIMIT_FILTER + 1, new Address("Dona Ema", new City("Rio Negrinho", PersonService.POPULATION_LIMIT_FILTER + 1, new State("RJ")))),
+			new Person("Maria Silva", null, null)
+		);
+		Path file = Files.createTempFile("persons", ".snapshot");
+		try {
+			MappedPersonTable.write(PersonTable.of(persons), file);
+			MappedPersonTable mapped = MappedPersonTable.open(file);
+			Assertions.assertEquals(5, mapped.size());
+			Assertions.assertEquals("São Paulo", mapped.stateName(2));
+			Assertions.assertEquals(Arrays.asList("RJ", "SC"), personService.getStates(mapped));
+			Assertions.assertEquals(Arrays.asList("RJ", "SC", "São Paulo"), personService.getStates(PersonAgeIndex.of(mapped), new StatesQuery(0, 0)));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void UC01_24() throws IOException {
+		Path file = Files.createTempFile("persons", ".snapshot");
+		try {
+			Files.write(file, Arrays.asList("André Justi", "Maycow Antunes"), StandardCharsets.UTF_8);
+			Assertions.assertThrows(IOException.class, () -> MappedPersonTable.open(file));
+
+			Collection<Person> persons = Arrays.asList(
+				new Person("André Justi", PersonService.AGE_LIMIT_FILTER + 10, new Address("Padre Chagas", new City("Florianópolis", PersonService.POPULATION_LIMIT_FILTER + 1, new State("SC")))),
+				new Person("Maycow Antunes", PersonService.AGE_LIMIT_FILTER + 1, new Address("Dona Ema", new City("Rio Negrinho", PersonService.POPULATION_LIMIT_FILTER + 1, new State("RJ"))))
+			);
+			// size, city count, state count and dictionary size follow the magic and the version
+			for (int position = 8; position <= 20; position += Integer.BYTES) {
+				MappedPersonTable.write(PersonTable.of(persons), file);
+				overwrite(file, position, -1);
+				Assertions.assertThrows(IOException.class, () -> MappedPersonTable.open(file));
+			}
+			// with two cities the file ends with the last state id, and the last city id sits five ints from the end
+			MappedPersonTable.write(PersonTable.of(persons), file);
+			overwrite(file, Files.size(file) - Integer.BYTES, 2);
+			Assertions.assertThrows(IOException.class, () -> MappedPersonTable.open(file));
+			MappedPersonTable.write(PersonTable.of(persons), file);
+			overwrite(file, Files.size(file) - 4L * Integer.BYTES - Integer.BYTES, 2);
+			Assertions.assertThrows(IOException.class, () -> MappedPersonTable.open(file));
+			MappedPersonTable.write(PersonTable.of(persons), file);
+			Assertions.assertEquals(Arrays.asList("RJ", "SC"), personService.getStates(MappedPersonTable.open(file)));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	private static void overwrite(Path file, long position, int value) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(value).flip(), position);
+		}
+	}
 }
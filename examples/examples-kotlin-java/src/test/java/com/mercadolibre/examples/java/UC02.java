@@ -2,13 +2,32 @@ package com.mercadolibre.examples.java;
 
 import org.junit.jupiter.api.Test;
 
+import java.math.BigInteger;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
 
 import static java.util.Arrays.asList;
-import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class UC02 {
@@ -20,22 +39,236 @@ public class UC02 {
         }
     }
 
-	static IntStream fibonacci() {
-		return Stream.iterate(new int[]{0, 1}, t -> new int[]{t[1], t[0] + t[1]})
-				.map(t -> t[0])
-				.mapToInt(Integer::intValue);
+	// F(46) is the largest fibonacci number that fits in an int
+	static final int[] FIBONACCI = new int[47];
+	private static final FibonacciPrefix[] FIBONACCI_PREFIXES = new FibonacciPrefix[FIBONACCI.length];
 
+	static {
+		FIBONACCI[1] = 1;
+		for (int index = 2; index < FIBONACCI.length; index++) {
+			FIBONACCI[index] = FIBONACCI[index - 1] + FIBONACCI[index - 2];
+		}
+		for (int size = 0; size < FIBONACCI.length; size++) {
+			FIBONACCI_PREFIXES[size] = new FibonacciPrefix(size);
+		}
+	}
+
+	static class FibonacciPrefix extends AbstractList<Integer> implements RandomAccess {
+
+		private final int size;
+
+		FibonacciPrefix(int size) {
+			this.size = size;
+		}
+
+		@Override
+		public Integer get(int index) {
+			return FIBONACCI[Objects.checkIndex(index, size)];
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+
+	static IntStream fibonacci() {
+		return IntStream.of(FIBONACCI);
 	}
 
 	static List<Integer> fibonacciUntil(Integer boundary) {
-		return fibonacci()
-				.takeWhile(sequence -> {
-					if (boundary > sequence) return true;
-					else if (boundary == sequence) return false;
-					else throw new InvalidFibonacciSequenceException();
-				})
-				.boxed()
-				.collect(toList());
+		int index = Arrays.binarySearch(FIBONACCI, boundary);
+		if (index < 0) {
+			throw new InvalidFibonacciSequenceException();
+		}
+		while (index > 0 && FIBONACCI[index - 1] == boundary) {
+			index--;
+		}
+		return FIBONACCI_PREFIXES[index];
+	}
+
+	// fast doubling: F(2k) = F(k) * (2F(k+1) - F(k)) and F(2k+1) = F(k)^2 + F(k+1)^2
+	static long fibonacciLong(int index) {
+		if (index < 0) {
+			throw new IllegalArgumentException("index must not be negative");
+		}
+		long current = 0;
+		long next = 1;
+		for (int bit = Integer.highestOneBit(index); bit > 1; bit >>>= 1) {
+			long doubled = Math.multiplyExact(current, Math.subtractExact(Math.multiplyExact(2, next), current));
+			long doubledNext = Math.addExact(Math.multiplyExact(current, current), Math.multiplyExact(next, next));
+			current = (index & bit) == 0 ? doubled : doubledNext;
+			next = (index & bit) == 0 ? doubledNext : Math.addExact(doubled, doubledNext);
+		}
+		// the last step only computes F(index), F(index + 1) may already overflow
+		if ((index & 1) == 0) {
+			return Math.multiplyExact(current, Math.subtractExact(Math.multiplyExact(2, next), current));
+		}
+		return Math.addExact(Math.multiplyExact(current, current), Math.multiplyExact(next, next));
+	}
+
+	static BigInteger fibonacciBig(int index) {
+		if (index < 0) {
+			throw new IllegalArgumentException("index must not be negative");
+		}
+		BigInteger current = BigInteger.ZERO;
+		BigInteger next = BigInteger.ONE;
+		for (int bit = Integer.highestOneBit(index); bit != 0; bit >>>= 1) {
+			BigInteger doubled = current.multiply(next.shiftLeft(1).subtract(current));
+			BigInteger doubledNext = current.multiply(current).add(next.multiply(next));
+			current = (index & bit) == 0 ? doubled : doubledNext;
+			next = (index & bit) == 0 ? doubledNext : doubled.add(doubledNext);
+		}
+		return current;
+	}
+
+	static LongStream fibonacciRange(int fromIndex, int toIndex) {
+		if (fromIndex < 0 || toIndex < fromIndex) {
+			throw new IllegalArgumentException("invalid fibonacci range [" + fromIndex + ", " + toIndex + ")");
+		}
+		PrimitiveIterator.OfLong sequence = new PrimitiveIterator.OfLong() {
+			private int index = fromIndex;
+			// F(-1) = 1 keeps F(1) = F(-1) + F(0)
+			private long previous = fromIndex == 0 ? 1 : fibonacciLong(fromIndex - 1);
+			private long current = fromIndex == toIndex ? 0 : fibonacciLong(fromIndex);
+
+			@Override
+			public boolean hasNext() {
+				return index < toIndex;
+			}
+
+			@Override
+			public long nextLong() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				if (index > fromIndex) {
+					long next = Math.addExact(previous, current);
+					previous = current;
+					current = next;
+				}
+				index++;
+				return current;
+			}
+		};
+		return StreamSupport.longStream(Spliterators.spliterator(sequence, toIndex - fromIndex, Spliterator.ORDERED | Spliterator.IMMUTABLE), false);
+	}
+
+	// F(92) is the largest fibonacci number that fits in a long
+	static final long[] LONG_FIBONACCI = fibonacciRange(0, 93).toArray();
+
+	static BitSet fibonacciMembership(int[] candidates) {
+		BitSet members = new BitSet(candidates.length);
+		for (int index = 0; index < candidates.length; index++) {
+			if (Arrays.binarySearch(FIBONACCI, candidates[index]) >= 0) {
+				members.set(index);
+			}
+		}
+		return members;
+	}
+
+	static BitSet fibonacciMembership(long[] candidates) {
+		BitSet members = new BitSet(candidates.length);
+		for (int index = 0; index < candidates.length; index++) {
+			if (Arrays.binarySearch(LONG_FIBONACCI, candidates[index]) >= 0) {
+				members.set(index);
+			}
+		}
+		return members;
+	}
+
+	static final FibonacciCache FIBONACCI_CACHE = new FibonacciCache();
+
+	static class FibonacciCache {
+
+		static final int MAX_CACHED_TERMS = 4096;
+
+		private final AtomicReference<BigInteger[]> terms = new AtomicReference<>(new BigInteger[]{BigInteger.ZERO, BigInteger.ONE});
+		private final int maxTerms;
+
+		FibonacciCache() {
+			this(MAX_CACHED_TERMS);
+		}
+
+		FibonacciCache(int maxTerms) {
+			if (maxTerms < 2) {
+				throw new IllegalArgumentException("cache must hold at least two terms");
+			}
+			this.maxTerms = maxTerms;
+		}
+
+		// published arrays are never written again, so prefix views over them can be shared between threads
+		List<BigInteger> prefix(int size) {
+			return new TermsPrefix(terms(size), size);
+		}
+
+		BigInteger[] terms() {
+			return terms.get();
+		}
+
+		// the shared array stops at maxTerms; longer requests extend a private copy that is dropped with the caller's result
+		BigInteger[] terms(int size) {
+			while (true) {
+				BigInteger[] current = terms.get();
+				if (current.length >= size) {
+					return current;
+				}
+				if (current.length == maxTerms) {
+					return extend(current, size);
+				}
+				BigInteger[] grown = extend(current, Math.min(Math.max(size, current.length * 2), maxTerms));
+				if (terms.compareAndSet(current, grown)) {
+					return grown.length >= size ? grown : extend(grown, size);
+				}
+			}
+		}
+
+		private static BigInteger[] extend(BigInteger[] terms, int size) {
+			BigInteger[] grown = Arrays.copyOf(terms, size);
+			for (int index = terms.length; index < grown.length; index++) {
+				grown[index] = grown[index - 1].add(grown[index - 2]);
+			}
+			return grown;
+		}
+	}
+
+	static class TermsPrefix extends AbstractList<BigInteger> implements RandomAccess {
+
+		private final BigInteger[] terms;
+		private final int size;
+
+		TermsPrefix(BigInteger[] terms, int size) {
+			this.terms = terms;
+			this.size = size;
+		}
+
+		@Override
+		public BigInteger get(int index) {
+			return terms[Objects.checkIndex(index, size)];
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+
+	static List<BigInteger> fibonacciUntil(BigInteger boundary) {
+		if (boundary.signum() < 0) {
+			throw new InvalidFibonacciSequenceException();
+		}
+		BigInteger[] terms = FIBONACCI_CACHE.terms();
+		while (terms[terms.length - 1].compareTo(boundary) < 0) {
+			terms = FIBONACCI_CACHE.terms(terms.length * 2);
+		}
+		int index = Arrays.binarySearch(terms, boundary);
+		if (index < 0) {
+			throw new InvalidFibonacciSequenceException();
+		}
+		while (index > 0 && terms[index - 1].equals(boundary)) {
+			index--;
+		}
+		return new TermsPrefix(terms, index);
 	}
 
 	static class Expect {
@@ -88,4 +321,110 @@ public class UC02 {
 	public void UC02_07() {
         assertThrows(InvalidFibonacciSequenceException.class, () -> fibonacciUntil(4));
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void UC02_08() {
+		whenFibonacciUntil(0).expect();
+		whenFibonacciUntil(1).expect(0);
+		whenFibonacciUntil(2).expect(0, 1, 1);
+		assertEquals(46, fibonacciUntil(1836311903).size());
+		assertSame(fibonacciUntil(55), fibonacciUntil(55));
+	}
+
+	@Test
+	public void UC02_09() {
+		assertThrows(InvalidFibonacciSequenceException.class, () -> fibonacciUntil(-1));
+		assertThrows(InvalidFibonacciSequenceException.class, () -> fibonacciUntil(Integer.MAX_VALUE));
+		assertThrows(UnsupportedOperationException.class, () -> fibonacciUntil(55).add(55));
+	}
+
+	@Test
+	public void UC02_10() {
+		long previous = 1;
+		long current = 0;
+		for (int index = 0; index <= 92; index++) {
+			assertEquals(current, fibonacciLong(index));
+			assertEquals(BigInteger.valueOf(current), fibonacciBig(index));
+			long next = previous + current;
+			previous = current;
+			current = next;
+		}
+		assertThrows(ArithmeticException.class, () -> fibonacciLong(93));
+		assertEquals(new BigInteger("12200160415121876738"), fibonacciBig(93));
+		assertEquals(new BigInteger("354224848179261915075"), fibonacciBig(100));
+	}
+
+	@Test
+	public void UC02_11() {
+		assertArrayEquals(new long[]{0, 1, 1, 2, 3, 5, 8, 13}, fibonacciRange(0, 8).toArray());
+		assertArrayEquals(new long[]{4660046610375530309L, 7540113804746346429L}, fibonacciRange(91, 93).toArray());
+		assertThrows(ArithmeticException.class, () -> fibonacciRange(91, 94).toArray());
+		assertThrows(IllegalArgumentException.class, () -> fibonacciRange(3, 2));
+	}
+
+	@Test
+	public void UC02_12() {
+		BitSet members = fibonacciMembership(new int[]{0, 1, 2, 4, 5, -1, 1836311903, Integer.MAX_VALUE});
+		assertEquals(BitSet.valueOf(new long[]{0b1010111}), members);
+	}
+
+	@Test
+	public void UC02_13() {
+		BitSet members = fibonacciMembership(new long[]{7540113804746346429L, 7540113804746346430L, 13, 14, Long.MIN_VALUE});
+		assertEquals(BitSet.valueOf(new long[]{0b101}), members);
+	}
+
+	@Test
+	public void UC02_14() {
+		List<BigInteger> prefix = fibonacciUntil(new BigInteger("354224848179261915075"));
+		assertEquals(100, prefix.size());
+		assertEquals(fibonacciBig(99), prefix.get(99));
+		assertEquals(asList(BigInteger.ZERO, BigInteger.ONE, BigInteger.ONE, BigInteger.valueOf(2), BigInteger.valueOf(3)), fibonacciUntil(BigInteger.valueOf(5)));
+		assertThrows(InvalidFibonacciSequenceException.class, () -> fibonacciUntil(new BigInteger("354224848179261915076")));
+		assertThrows(UnsupportedOperationException.class, () -> prefix.set(0, BigInteger.TEN));
+	}
+
+	@Test
+	public void UC02_15() throws Exception {
+		FibonacciCache cache = new FibonacciCache();
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<?>> readers = new ArrayList<>();
+			for (int reader = 0; reader < 8; reader++) {
+				int step = reader + 1;
+				readers.add(executor.submit(() -> {
+					for (int size = step; size <= 2000; size += step * 7) {
+						List<BigInteger> prefix = cache.prefix(size);
+						assertEquals(size, prefix.size());
+						assertEquals(fibonacciBig(size - 1), prefix.get(size - 1));
+					}
+				}));
+			}
+			for (Future<?> reader : readers) {
+				reader.get(30, TimeUnit.SECONDS);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertTrue(cache.terms().length >= 2000);
+		assertSame(cache.terms(), cache.terms(2000));
+	}
+
+	@Test
+	public void UC02_16() {
+		FibonacciCache cache = new FibonacciCache(100);
+		List<BigInteger> prefix = cache.prefix(500);
+		assertEquals(500, prefix.size());
+		assertEquals(fibonacciBig(499), prefix.get(499));
+		assertEquals(100, cache.terms().length);
+		assertSame(cache.terms(), cache.terms(100));
+		assertEquals(fibonacciBig(99), cache.prefix(100).get(99));
+		assertThrows(IllegalArgumentException.class, () -> new FibonacciCache(1));
+
+		BigInteger boundary = fibonacciBig(FibonacciCache.MAX_CACHED_TERMS + 500);
+		List<BigInteger> beyondCap = fibonacciUntil(boundary);
+		assertEquals(FibonacciCache.MAX_CACHED_TERMS + 500, beyondCap.size());
+		assertThrows(InvalidFibonacciSequenceException.class, () -> fibonacciUntil(boundary.add(BigInteger.ONE)));
+		assertTrue(FIBONACCI_CACHE.terms().length <= FibonacciCache.MAX_CACHED_TERMS);
+	}
+}
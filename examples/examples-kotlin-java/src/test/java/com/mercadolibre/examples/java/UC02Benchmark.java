@@ -0,0 +1,71 @@
+package com.mercadolibre.examples.java;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UC02Benchmark {
+
+	@Param({"10", "46"})
+	public int index;
+
+	@State(Scope.Benchmark)
+	public static class LargeIndex {
+
+		@Param({"1000", "100000"})
+		public int index;
+	}
+
+	@Benchmark
+	public int iterate() {
+		return Stream.iterate(new int[]{0, 1}, t -> new int[]{t[1], t[0] + t[1]})
+				.skip(index)
+				.findFirst()
+				.get()[0];
+	}
+
+	@Benchmark
+	public int table() {
+		return UC02.fibonacci().skip(index).findFirst().getAsInt();
+	}
+
+	@Benchmark
+	public long fastDoublingLong() {
+		return UC02.fibonacciLong(index);
+	}
+
+	@Benchmark
+	public long range() {
+		return UC02.fibonacciRange(0, index + 1).skip(index).findFirst().getAsLong();
+	}
+
+	@Benchmark
+	public BigInteger iterateBig(LargeIndex large) {
+		return Stream.iterate(new BigInteger[]{BigInteger.ZERO, BigInteger.ONE}, t -> new BigInteger[]{t[1], t[0].add(t[1])})
+				.skip(large.index)
+				.findFirst()
+				.get()[0];
+	}
+
+	@Benchmark
+	public BigInteger fastDoublingBig(LargeIndex large) {
+		return UC02.fibonacciBig(large.index);
+	}
+}
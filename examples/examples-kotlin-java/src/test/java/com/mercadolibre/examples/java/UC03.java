@@ -2,9 +2,51 @@ package com.mercadolibre.examples.java;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 class InvalidSalaryException extends Exception {
     public InvalidSalaryException(String message) {
@@ -41,109 +83,1489 @@ class Collaborator {
         this.sector = sector;
     }
 
+    public String getName() {
+        return name;
+    }
+
     public Double getSalary() {
         return salary;
     }
 
-    public Sector getSector() {
-        return sector;
+    public Sector getSector() {
+        return sector;
+    }
+
+    @Override
+    public String toString() {
+        return "Collaborator{" +
+                "name='" + name + '\'' +
+                '}';
+    }
+}
+
+class SectorFingerprint {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private long fingerprint = FNV_OFFSET;
+    private int size;
+
+    // FNV-1a over every (name, salary) in summary order, fed by the loop that lays the collaborators out
+    public void add(Collaborator collaborator) {
+        String name = String.valueOf(collaborator.getName());
+        fingerprint = mix(fingerprint, name.length());
+        for (int index = 0; index < name.length(); index++) {
+            fingerprint = (fingerprint ^ name.charAt(index)) * FNV_PRIME;
+        }
+        fingerprint = mix(fingerprint, collaborator.getSalary() == null ? 0L : Double.doubleToLongBits(collaborator.getSalary()));
+        size++;
+    }
+
+    public long finish(Double total) {
+        return mix(mix(fingerprint, size), total == null ? 0L : Double.doubleToLongBits(total));
+    }
+
+    private static long mix(long fingerprint, long value) {
+        for (int shift = 0; shift < 64; shift += 8) {
+            fingerprint = (fingerprint ^ ((value >>> shift) & 0xFF)) * FNV_PRIME;
+        }
+        return fingerprint;
+    }
+}
+
+class SectorSummary {
+    private Double total;
+    private List<Collaborator> collaborators;
+    private long fingerprint;
+
+    // the caller keeps its list, so the summary hashes and holds a copy that cannot drift from the fingerprint
+    public SectorSummary(Double total, List<Collaborator> collaborators) {
+        List<Collaborator> copy = new ArrayList<>(collaborators);
+        this.total = total;
+        this.collaborators = Collections.unmodifiableList(copy);
+        this.fingerprint = fingerprint(total, copy);
+    }
+
+    // the builders hand over a list nobody else holds, with the fingerprint they folded while filling it
+    SectorSummary(Double total, List<Collaborator> collaborators, long fingerprint) {
+        this.total = total;
+        this.collaborators = Collections.unmodifiableList(collaborators);
+        this.fingerprint = fingerprint;
+    }
+
+    static long fingerprint(Double total, List<Collaborator> collaborators) {
+        SectorFingerprint fingerprint = new SectorFingerprint();
+        collaborators.forEach(fingerprint::add);
+        return fingerprint.finish(total);
+    }
+
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    public Double getTotal() {
+        return total;
+    }
+
+    public List<Collaborator> getCollaborators() {
+        return collaborators;
+    }
+
+    @Override
+    public String toString() {
+        return "SectorSummary{" +
+                "total=" + total +
+                ", collaborators=" + collaborators +
+                '}';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SectorSummary that = (SectorSummary) o;
+        return fingerprint == that.fingerprint &&
+                Objects.equals(total, that.total) &&
+                Objects.equals(collaborators, that.collaborators);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(fingerprint);
+    }
+}
+
+class SectorSummaryDiff {
+    private final Set<String> added;
+    private final Set<String> removed;
+    private final Set<String> changed;
+
+    private SectorSummaryDiff(Set<String> added, Set<String> removed, Set<String> changed) {
+        this.added = added;
+        this.removed = removed;
+        this.changed = changed;
+    }
+
+    // sectors whose fingerprints match are taken as unchanged without walking their collaborators
+    public static SectorSummaryDiff between(Map<String, SectorSummary> previous, Map<String, SectorSummary> current) {
+        Set<String> added = new TreeSet<>();
+        Set<String> removed = new TreeSet<>();
+        Set<String> changed = new TreeSet<>();
+        for (Map.Entry<String, SectorSummary> sector : current.entrySet()) {
+            SectorSummary before = previous.get(sector.getKey());
+            if (before == null) {
+                added.add(sector.getKey());
+            } else if (before.getFingerprint() != sector.getValue().getFingerprint()) {
+                changed.add(sector.getKey());
+            }
+        }
+        for (String sector : previous.keySet()) {
+            if (!current.containsKey(sector)) {
+                removed.add(sector);
+            }
+        }
+        return new SectorSummaryDiff(added, removed, changed);
+    }
+
+    public Set<String> getAdded() {
+        return added;
+    }
+
+    public Set<String> getRemoved() {
+        return removed;
+    }
+
+    public Set<String> getChanged() {
+        return changed;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+}
+
+class Collaborators {
+    private List<Collaborator> collaborators;
+
+    public Collaborators(List<Collaborator> collaborators) {
+        this.collaborators = collaborators;
+    }
+
+    public boolean isSalariesValid() {
+        return this.collaborators.stream().noneMatch(it -> it.getSalary() == null || it.getSalary() < 0);
+    }
+
+    public boolean isSectorsValid() {
+        return this.collaborators.stream().noneMatch(it -> it.getSector() == null);
+    }
+
+    public List<Collaborator> get() {
+        return this.collaborators;
+    }
+}
+
+class SectorAccumulator {
+    private final List<Collaborator> collaborators = new ArrayList<>();
+    private final DoubleSummaryStatistics salaries = new DoubleSummaryStatistics();
+
+    // DoubleSummaryStatistics uses the same compensated summation as DoubleStream.sum()
+    public void add(Collaborator collaborator) {
+        collaborators.add(collaborator);
+        salaries.accept(collaborator.getSalary());
+    }
+
+    public SectorSummary toSummary() {
+        Collaborator[] sorted = collaborators.toArray(new Collaborator[0]);
+        SectorFingerprint fingerprint = new SectorFingerprint();
+        SalaryRadixSort.sort(sorted, fingerprint);
+        return new SectorSummary(salaries.getSum(), Arrays.asList(sorted), fingerprint.finish(salaries.getSum()));
+    }
+}
+
+class SalaryRadixSort {
+    static final int INSERTION_THRESHOLD = 64;
+
+    // flips every bit of negatives and only the sign bit of the rest, so unsigned key order is Double.compare order, -0.0 and NaN included
+    static long key(double salary) {
+        long bits = Double.doubleToLongBits(salary);
+        return bits ^ ((bits >> 63) | Long.MIN_VALUE);
+    }
+
+    public static void sort(List<Collaborator> collaborators) {
+        Collaborator[] sorted = collaborators.toArray(new Collaborator[0]);
+        sort(sorted);
+        ListIterator<Collaborator> iterator = collaborators.listIterator();
+        for (Collaborator collaborator : sorted) {
+            iterator.next();
+            iterator.set(collaborator);
+        }
+    }
+
+    public static void sort(Collaborator[] collaborators) {
+        sort(collaborators, null);
+    }
+
+    // the last pass lays the collaborators out in salary order, so a summary fingerprint is folded there when one is given
+    static void sort(Collaborator[] collaborators, SectorFingerprint fingerprint) {
+        long[] keys = new long[collaborators.length];
+        int[] order = new int[collaborators.length];
+        for (int index = 0; index < collaborators.length; index++) {
+            keys[index] = key(collaborators[index].getSalary());
+            order[index] = index;
+        }
+        sort(keys, order, 0, collaborators.length);
+        Collaborator[] original = collaborators.clone();
+        for (int index = 0; index < collaborators.length; index++) {
+            collaborators[index] = original[order[index]];
+            if (fingerprint != null) {
+                fingerprint.add(collaborators[index]);
+            }
+        }
+    }
+
+    // stable LSD radix sort of keys[from, to) carrying values along; bytes every key shares are skipped
+    static void sort(long[] keys, int[] values, int from, int to) {
+        int length = to - from;
+        if (length <= INSERTION_THRESHOLD) {
+            insertionSort(keys, values, from, to);
+            return;
+        }
+        int[][] counts = new int[8][256];
+        for (int index = from; index < to; index++) {
+            long key = keys[index];
+            for (int pass = 0; pass < 8; pass++) {
+                counts[pass][(int) (key >>> (pass * 8)) & 0xFF]++;
+            }
+        }
+        long[] sourceKeys = keys;
+        int[] sourceValues = values;
+        int sourceFrom = from;
+        long[] targetKeys = new long[length];
+        int[] targetValues = new int[length];
+        int targetFrom = 0;
+        for (int pass = 0; pass < 8; pass++) {
+            int shift = pass * 8;
+            int[] count = counts[pass];
+            if (count[(int) (sourceKeys[sourceFrom] >>> shift) & 0xFF] == length) {
+                continue;
+            }
+            int offset = targetFrom;
+            for (int digit = 0; digit < 256; digit++) {
+                int next = offset + count[digit];
+                count[digit] = offset;
+                offset = next;
+            }
+            for (int index = sourceFrom; index < sourceFrom + length; index++) {
+                int position = count[(int) (sourceKeys[index] >>> shift) & 0xFF]++;
+                targetKeys[position] = sourceKeys[index];
+                targetValues[position] = sourceValues[index];
+            }
+            long[] swapKeys = sourceKeys;
+            int[] swapValues = sourceValues;
+            int swapFrom = sourceFrom;
+            sourceKeys = targetKeys;
+            sourceValues = targetValues;
+            sourceFrom = targetFrom;
+            targetKeys = swapKeys;
+            targetValues = swapValues;
+            targetFrom = swapFrom;
+        }
+        if (sourceKeys != keys) {
+            System.arraycopy(sourceKeys, sourceFrom, keys, from, length);
+            System.arraycopy(sourceValues, sourceFrom, values, from, length);
+        }
+    }
+
+    private static void insertionSort(long[] keys, int[] values, int from, int to) {
+        for (int index = from + 1; index < to; index++) {
+            long key = keys[index];
+            int value = values[index];
+            int position = index;
+            while (position > from && Long.compareUnsigned(keys[position - 1], key) > 0) {
+                keys[position] = keys[position - 1];
+                values[position] = values[position - 1];
+                position--;
+            }
+            keys[position] = key;
+            values[position] = value;
+        }
+    }
+}
+
+class CompensatedSum {
+    private double sum;
+    private double compensation;
+
+    public CompensatedSum() {
+    }
+
+    public CompensatedSum(double sum, double compensation) {
+        this.sum = sum;
+        this.compensation = compensation;
+    }
+
+    // Neumaier's variant of Kahan summation, which also keeps the low-order bits when the new value is the larger one
+    public void add(double value) {
+        double total = sum + value;
+        // past infinity or NaN the correction is meaningless and would turn an infinite total into NaN, unlike DoubleSummaryStatistics
+        if (!Double.isFinite(total)) {
+            sum = total;
+            return;
+        }
+        if (Math.abs(sum) >= Math.abs(value)) {
+            compensation += (sum - total) + value;
+        } else {
+            compensation += (value - total) + sum;
+        }
+        sum = total;
+    }
+
+    public void merge(CompensatedSum other) {
+        add(other.sum);
+        add(other.compensation);
+    }
+
+    public double get() {
+        return sum + compensation;
+    }
+
+    double sum() {
+        return sum;
+    }
+
+    double compensation() {
+        return compensation;
+    }
+}
+
+class CollaboratorBatch {
+    private final Collaborator[] collaborators;
+    private final double[] salaries;
+    private final int[] sectorIds;
+    private final String[] sectorNames;
+
+    private CollaboratorBatch(Collaborator[] collaborators, double[] salaries, int[] sectorIds, String[] sectorNames) {
+        this.collaborators = collaborators;
+        this.salaries = salaries;
+        this.sectorIds = sectorIds;
+        this.sectorNames = sectorNames;
+    }
+
+    public static CollaboratorBatch of(Collaborators collaborators) throws InvalidSalaryException, InvalidSectorException {
+        int size = collaborators.get().size();
+        Collaborator[] rows = new Collaborator[size];
+        double[] salaries = new double[size];
+        int[] sectorIds = new int[size];
+        Map<String, Integer> sectorIdsByName = new HashMap<>();
+        List<String> sectorNames = new ArrayList<>();
+        boolean sectorsValid = true;
+        boolean sectorNamesValid = true;
+        int row = 0;
+        for (Collaborator collaborator : collaborators.get()) {
+            if (collaborator.getSalary() == null || collaborator.getSalary() < 0) {
+                throw new InvalidSalaryException("salary is required");
+            }
+            if (collaborator.getSector() == null) {
+                sectorsValid = false;
+            } else if (collaborator.getSector().getName() == null) {
+                sectorNamesValid = false;
+            } else if (sectorsValid && sectorNamesValid) {
+                String sector = collaborator.getSector().getName();
+                Integer sectorId = sectorIdsByName.get(sector);
+                if (sectorId == null) {
+                    sectorId = sectorNames.size();
+                    sectorIdsByName.put(sector, sectorId);
+                    sectorNames.add(sector);
+                }
+                sectorIds[row] = sectorId;
+            }
+            rows[row] = collaborator;
+            salaries[row] = collaborator.getSalary();
+            row++;
+        }
+        if (!sectorsValid) {
+            throw new InvalidSectorException("sector is required");
+        }
+        if (!sectorNamesValid) {
+            throw new NullPointerException("element cannot be mapped to a null key");
+        }
+        return new CollaboratorBatch(rows, salaries, sectorIds, sectorNames.toArray(new String[0]));
+    }
+
+    public int size() {
+        return salaries.length;
+    }
+
+    public Collaborator collaborator(int row) {
+        return collaborators[row];
+    }
+
+    public double salary(int row) {
+        return salaries[row];
+    }
+
+    public int sectorId(int row) {
+        return sectorIds[row];
+    }
+
+    public int sectorCount() {
+        return sectorNames.length;
+    }
+
+    public String sectorName(int sector) {
+        return sectorNames[sector];
+    }
+}
+
+class SectorService {
+    public static final int PARALLEL_THRESHOLD = 10000;
+    public static final int PARALLEL_SORT_THRESHOLD = 1 << 16;
+
+    public Map<String, SectorSummary> compile(Collaborators collaborators) throws InvalidSalaryException, InvalidSectorException {
+        if (collaborators.get().size() >= PARALLEL_THRESHOLD) {
+            return compileInParallel(collaborators);
+        }
+        return compileSequentially(collaborators);
+    }
+
+    Map<String, SectorSummary> compileSequentially(Collaborators collaborators) throws InvalidSalaryException, InvalidSectorException {
+        Map<String, SectorAccumulator> sectors = new HashMap<>();
+        boolean sectorsValid = true;
+        boolean sectorNamesValid = true;
+        for (Collaborator collaborator : collaborators.get()) {
+            if (collaborator.getSalary() == null || collaborator.getSalary() < 0) {
+                throw new InvalidSalaryException("salary is required");
+            }
+            if (collaborator.getSector() == null) {
+                sectorsValid = false;
+            } else if (collaborator.getSector().getName() == null) {
+                sectorNamesValid = false;
+            } else if (sectorsValid && sectorNamesValid) {
+                sectors.computeIfAbsent(collaborator.getSector().getName(), it -> new SectorAccumulator()).add(collaborator);
+            }
+        }
+        // a missing sector and then a null sector name only win once every salary has been checked, as in validateCollaborators and groupingBy
+        if (!sectorsValid) {
+            throw new InvalidSectorException("sector is required");
+        }
+        if (!sectorNamesValid) {
+            throw new NullPointerException("element cannot be mapped to a null key");
+        }
+        Map<String, SectorSummary> summaries = new HashMap<>();
+        sectors.forEach((sector, accumulator) -> summaries.put(sector, accumulator.toSummary()));
+        return summaries;
+    }
+
+    public Map<String, SectorStatistics> summarize(Collaborators collaborators, int topN) throws InvalidSalaryException, InvalidSectorException {
+        Map<String, SectorStatistics> sectors = new HashMap<>();
+        boolean sectorsValid = true;
+        boolean sectorNamesValid = true;
+        for (Collaborator collaborator : collaborators.get()) {
+            if (collaborator.getSalary() == null || collaborator.getSalary() < 0) {
+                throw new InvalidSalaryException("salary is required");
+            }
+            if (collaborator.getSector() == null) {
+                sectorsValid = false;
+            } else if (collaborator.getSector().getName() == null) {
+                sectorNamesValid = false;
+            } else if (sectorsValid && sectorNamesValid) {
+                sectors.computeIfAbsent(collaborator.getSector().getName(), it -> new SectorStatistics(topN)).add(collaborator);
+            }
+        }
+        if (!sectorsValid) {
+            throw new InvalidSectorException("sector is required");
+        }
+        if (!sectorNamesValid) {
+            throw new NullPointerException("element cannot be mapped to a null key");
+        }
+        return sectors;
+    }
+
+    public void compile(Path payroll, BiConsumer<String, SectorSummary> sink) throws IOException, InvalidSalaryException, InvalidSectorException {
+        new PayrollFileCompiler().compile(payroll, sink);
+    }
+
+    public Map<String, SectorSummary> compile(CollaboratorBatch batch) {
+        CompensatedSum[] totals = new CompensatedSum[batch.sectorCount()];
+        int[] starts = new int[batch.sectorCount() + 1];
+        for (int sector = 0; sector < totals.length; sector++) {
+            totals[sector] = new CompensatedSum();
+        }
+        for (int row = 0; row < batch.size(); row++) {
+            totals[batch.sectorId(row)].add(batch.salary(row));
+            starts[batch.sectorId(row) + 1]++;
+        }
+        for (int sector = 0; sector < totals.length; sector++) {
+            starts[sector + 1] += starts[sector];
+        }
+        // counting sort by sector keeps input order inside every sector
+        int[] rows = new int[batch.size()];
+        int[] next = Arrays.copyOf(starts, totals.length);
+        for (int row = 0; row < batch.size(); row++) {
+            rows[next[batch.sectorId(row)]++] = row;
+        }
+
+        long[] keys = new long[rows.length];
+        for (int index = 0; index < rows.length; index++) {
+            keys[index] = SalaryRadixSort.key(batch.salary(rows[index]));
+        }
+
+        Map<String, SectorSummary> summaries = new HashMap<>();
+        for (int sector = 0; sector < totals.length; sector++) {
+            SalaryRadixSort.sort(keys, rows, starts[sector], starts[sector + 1]);
+            List<Collaborator> collaborators = new ArrayList<>(starts[sector + 1] - starts[sector]);
+            SectorFingerprint fingerprint = new SectorFingerprint();
+            for (int index = starts[sector]; index < starts[sector + 1]; index++) {
+                Collaborator collaborator = batch.collaborator(rows[index]);
+                collaborators.add(collaborator);
+                fingerprint.add(collaborator);
+            }
+            double total = totals[sector].get();
+            summaries.put(batch.sectorName(sector), new SectorSummary(total, collaborators, fingerprint.finish(total)));
+        }
+        return summaries;
+    }
+
+    // groups positions instead of collaborators, so every sector can restore the input order the sequential path sums and sorts in
+    Map<String, SectorSummary> compileInParallel(Collaborators collaborators) throws InvalidSalaryException, InvalidSectorException {
+        Collaborator[] all = collaborators.get().toArray(new Collaborator[0]);
+        if (Arrays.stream(all).parallel().anyMatch(it -> it.getSalary() == null || it.getSalary() < 0)) {
+            throw new InvalidSalaryException("salary is required");
+        }
+        if (Arrays.stream(all).parallel().anyMatch(it -> it.getSector() == null)) {
+            throw new InvalidSectorException("sector is required");
+        }
+        ConcurrentMap<String, List<Integer>> positions = IntStream.range(0, all.length)
+                .parallel()
+                .boxed()
+                .collect(Collectors.groupingByConcurrent(it -> all[it].getSector().getName()));
+        Map<String, ForkJoinTask<SectorSummary>> tasks = new HashMap<>();
+        positions.forEach((sector, group) -> tasks.put(sector, ForkJoinPool.commonPool().submit(() -> summarize(all, group))));
+        Map<String, SectorSummary> summaries = new HashMap<>();
+        tasks.forEach((sector, task) -> summaries.put(sector, task.join()));
+        return summaries;
+    }
+
+    private SectorSummary summarize(Collaborator[] all, List<Integer> group) {
+        int[] positions = group.stream().mapToInt(Integer::intValue).toArray();
+        Arrays.sort(positions);
+        Collaborator[] collaborators = new Collaborator[positions.length];
+        DoubleSummaryStatistics salaries = new DoubleSummaryStatistics();
+        for (int index = 0; index < positions.length; index++) {
+            collaborators[index] = all[positions[index]];
+            salaries.accept(collaborators[index].getSalary());
+        }
+        // the radix sort runs on one thread, so the sectors large enough to pay for it keep the stable parallel merge sort;
+        // that sort has no last pass to fold the fingerprint into, so those sectors fold it in one more sequential pass
+        SectorFingerprint fingerprint = new SectorFingerprint();
+        if (collaborators.length >= PARALLEL_SORT_THRESHOLD) {
+            Arrays.parallelSort(collaborators, Comparator.comparingDouble(Collaborator::getSalary));
+            for (Collaborator collaborator : collaborators) {
+                fingerprint.add(collaborator);
+            }
+        } else {
+            SalaryRadixSort.sort(collaborators, fingerprint);
+        }
+        return new SectorSummary(salaries.getSum(), Arrays.asList(collaborators), fingerprint.finish(salaries.getSum()));
+    }
+}
+
+class LedgerEntry {
+    private final Collaborator collaborator;
+    private final double salary;
+    private final long sequence;
+
+    public LedgerEntry(Collaborator collaborator, long sequence) {
+        this.collaborator = collaborator;
+        this.salary = collaborator.getSalary();
+        this.sequence = sequence;
+    }
+
+    public Collaborator getCollaborator() {
+        return collaborator;
+    }
+
+    public double getSalary() {
+        return salary;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+}
+
+class LedgerSector {
+    // ties keep hiring order, like the stable sort in compile keeps input order
+    private final TreeSet<LedgerEntry> entries = new TreeSet<>(Comparator.comparingDouble(LedgerEntry::getSalary).thenComparingLong(LedgerEntry::getSequence));
+    private final TreeMap<Long, LedgerEntry> hired = new TreeMap<>();
+    private SectorSummary summary;
+
+    public void add(LedgerEntry entry) {
+        entries.add(entry);
+        hired.put(entry.getSequence(), entry);
+        summary = null;
+    }
+
+    public void remove(LedgerEntry entry) {
+        entries.remove(entry);
+        hired.remove(entry.getSequence());
+        summary = null;
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    // events are O(log n), but the first read after a change rebuilds the summary in O(n): a running total cannot give back
+    // compile's rounding once salaries are removed, so the total is re-summed in hiring order; later reads reuse the cached summary
+    public SectorSummary toSummary() {
+        if (summary == null) {
+            DoubleSummaryStatistics salaries = new DoubleSummaryStatistics();
+            hired.values().forEach(it -> salaries.accept(it.getSalary()));
+            List<Collaborator> collaborators = new ArrayList<>(entries.size());
+            SectorFingerprint fingerprint = new SectorFingerprint();
+            for (LedgerEntry entry : entries) {
+                collaborators.add(entry.getCollaborator());
+                fingerprint.add(entry.getCollaborator());
+            }
+            summary = new SectorSummary(salaries.getSum(), collaborators, fingerprint.finish(salaries.getSum()));
+        }
+        return summary;
+    }
+}
+
+class SectorLedger {
+    private final Map<String, LedgerSector> sectors = new HashMap<>();
+    private final Map<Collaborator, LedgerEntry> entries = new IdentityHashMap<>();
+    private long sequence;
+
+    public void hire(Collaborator collaborator) throws InvalidSalaryException, InvalidSectorException {
+        validate(collaborator);
+        if (entries.containsKey(collaborator)) {
+            throw new IllegalArgumentException("collaborator is already in the ledger");
+        }
+        add(new LedgerEntry(collaborator, sequence++));
+    }
+
+    public void fire(Collaborator collaborator) {
+        LedgerEntry entry = entries.remove(collaborator);
+        if (entry == null) {
+            throw new IllegalArgumentException("collaborator is not in the ledger");
+        }
+        String sector = collaborator.getSector().getName();
+        LedgerSector ledgerSector = sectors.get(sector);
+        ledgerSector.remove(entry);
+        if (ledgerSector.isEmpty()) {
+            sectors.remove(sector);
+        }
+    }
+
+    public void changeSalary(Collaborator previous, Collaborator current) throws InvalidSalaryException, InvalidSectorException {
+        replace(previous, current);
+    }
+
+    public void moveSector(Collaborator previous, Collaborator current) throws InvalidSalaryException, InvalidSectorException {
+        replace(previous, current);
+    }
+
+    public SectorSummary summary(String sector) {
+        LedgerSector ledgerSector = sectors.get(sector);
+        return ledgerSector == null ? null : ledgerSector.toSummary();
+    }
+
+    public Map<String, SectorSummary> summaries() {
+        Map<String, SectorSummary> summaries = new HashMap<>();
+        sectors.forEach((sector, ledgerSector) -> summaries.put(sector, ledgerSector.toSummary()));
+        return summaries;
+    }
+
+    // the replacement keeps the previous hiring sequence, as if it took the same place in the collaborators list
+    private void replace(Collaborator previous, Collaborator current) throws InvalidSalaryException, InvalidSectorException {
+        validate(current);
+        LedgerEntry entry = entries.get(previous);
+        if (entry == null) {
+            throw new IllegalArgumentException("collaborator is not in the ledger");
+        }
+        if (previous != current && entries.containsKey(current)) {
+            throw new IllegalArgumentException("collaborator is already in the ledger");
+        }
+        fire(previous);
+        add(new LedgerEntry(current, entry.getSequence()));
+    }
+
+    private void add(LedgerEntry entry) {
+        entries.put(entry.getCollaborator(), entry);
+        sectors.computeIfAbsent(entry.getCollaborator().getSector().getName(), it -> new LedgerSector()).add(entry);
+    }
+
+    private void validate(Collaborator collaborator) throws InvalidSalaryException, InvalidSectorException {
+        if (collaborator.getSalary() == null || collaborator.getSalary() < 0) {
+            throw new InvalidSalaryException("salary is required");
+        }
+        if (collaborator.getSector() == null || collaborator.getSector().getName() == null) {
+            throw new InvalidSectorException("sector is required");
+        }
+    }
+}
+
+class PayrollEntry {
+    private final String name;
+    private final double salary;
+    private final long sequence;
+
+    public PayrollEntry(String name, double salary, long sequence) {
+        this.name = name;
+        this.salary = salary;
+        this.sequence = sequence;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getSalary() {
+        return salary;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+}
+
+class PayrollSector {
+    private final DoubleSummaryStatistics salaries = new DoubleSummaryStatistics();
+    private final List<PayrollEntry> buffered = new ArrayList<>();
+    private final List<PayrollRun> runs = new ArrayList<>();
+
+    public DoubleSummaryStatistics getSalaries() {
+        return salaries;
+    }
+
+    public List<PayrollEntry> getBuffered() {
+        return buffered;
+    }
+
+    public List<PayrollRun> getRuns() {
+        return runs;
+    }
+}
+
+class PayrollRun {
+    private final Path spill;
+    private final long offset;
+    private final int count;
+
+    public PayrollRun(Path spill, long offset, int count) {
+        this.spill = spill;
+        this.offset = offset;
+        this.count = count;
+    }
+
+    public Path getSpill() {
+        return spill;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getCount() {
+        return count;
+    }
+}
+
+class PayrollFileCompiler {
+    public static final int MAX_BUFFERED_COLLABORATORS = 1000000;
+    private static final String HEADER = "name,salary,sector";
+    private static final Comparator<PayrollEntry> BY_SALARY = Comparator.comparingDouble(PayrollEntry::getSalary).thenComparingLong(PayrollEntry::getSequence);
+
+    private final int maxBuffered;
+    private final Path spillDirectory;
+
+    PayrollFileCompiler() {
+        this(MAX_BUFFERED_COLLABORATORS, Paths.get(System.getProperty("java.io.tmpdir")));
+    }
+
+    PayrollFileCompiler(int maxBuffered, Path spillDirectory) {
+        this.maxBuffered = maxBuffered;
+        this.spillDirectory = spillDirectory;
+    }
+
+    // only totals stay in memory while the file is read; once maxBuffered collaborators are pending they are sorted and
+    // spilled to one file holding a run per sector. Runs are streamed back one entry at a time, so the largest sector's
+    // own SectorSummary, which has to hold all of its collaborators, is what bounds memory while emitting
+    public void compile(Path payroll, BiConsumer<String, SectorSummary> sink) throws IOException, InvalidSalaryException, InvalidSectorException {
+        Map<String, PayrollSector> sectors = new TreeMap<>();
+        List<Path> spills = new ArrayList<>();
+        try {
+            read(payroll, sectors, spills);
+            for (Map.Entry<String, PayrollSector> sector : sectors.entrySet()) {
+                sink.accept(sector.getKey(), merge(sector.getKey(), sector.getValue()));
+            }
+        } finally {
+            for (Path spill : spills) {
+                Files.deleteIfExists(spill);
+            }
+        }
+    }
+
+    // blank lines and a leading name,salary,sector header carry no collaborator
+    static boolean isSkipped(String line, long lineNumber) {
+        return line.isEmpty() || (lineNumber == 1 && line.equals(HEADER));
+    }
+
+    static String[] fields(String line, long lineNumber) throws IOException {
+        List<String> fields = new ArrayList<>(3);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int index = 0; index < line.length(); index++) {
+            char next = line.charAt(index);
+            if (quoted && next == '"' && index + 1 < line.length() && line.charAt(index + 1) == '"') {
+                field.append('"');
+                index++;
+            } else if (next == '"') {
+                quoted = !quoted;
+            } else if (next == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(next);
+            }
+        }
+        fields.add(field.toString());
+        if (quoted || fields.size() != 3) {
+            throw new IOException("malformed payroll line " + lineNumber);
+        }
+        return fields.toArray(new String[0]);
+    }
+
+    static double salary(String field, long lineNumber) throws InvalidSalaryException {
+        double salary;
+        try {
+            salary = Double.parseDouble(field);
+        } catch (NumberFormatException e) {
+            throw new InvalidSalaryException(field.trim().isEmpty() ? "salary is required" : "invalid salary on line " + lineNumber);
+        }
+        if (salary < 0) {
+            throw new InvalidSalaryException("salary is required");
+        }
+        return salary;
+    }
+
+    private void read(Path payroll, Map<String, PayrollSector> sectors, List<Path> spills) throws IOException, InvalidSalaryException, InvalidSectorException {
+        boolean sectorsValid = true;
+        int buffered = 0;
+        long sequence = 0;
+        try (BufferedReader reader = Files.newBufferedReader(payroll, StandardCharsets.UTF_8)) {
+            String line;
+            for (long lineNumber = 1; (line = reader.readLine()) != null; lineNumber++) {
+                if (isSkipped(line, lineNumber)) {
+                    continue;
+                }
+                String[] fields = fields(line, lineNumber);
+                double salary = salary(fields[1], lineNumber);
+                if (fields[2].isEmpty()) {
+                    sectorsValid = false;
+                } else if (sectorsValid) {
+                    PayrollSector sector = sectors.computeIfAbsent(fields[2], it -> new PayrollSector());
+                    sector.getSalaries().accept(salary);
+                    sector.getBuffered().add(new PayrollEntry(fields[0], salary, sequence++));
+                    if (++buffered >= maxBuffered) {
+                        spill(sectors, spills);
+                        buffered = 0;
+                    }
+                }
+            }
+        }
+        if (!sectorsValid) {
+            throw new InvalidSectorException("sector is required");
+        }
+    }
+
+    private void spill(Map<String, PayrollSector> sectors, List<Path> spills) throws IOException {
+        Path spill = Files.createTempFile(spillDirectory, "payroll", ".run");
+        spills.add(spill);
+        long offset = 0;
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spill)))) {
+            for (PayrollSector sector : sectors.values()) {
+                List<PayrollEntry> buffered = sector.getBuffered();
+                if (buffered.isEmpty()) {
+                    continue;
+                }
+                buffered.sort(BY_SALARY);
+                sector.getRuns().add(new PayrollRun(spill, offset, buffered.size()));
+                for (PayrollEntry entry : buffered) {
+                    // length-prefixed bytes, since writeUTF refuses names over 64 KB
+                    byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+                    output.writeDouble(entry.getSalary());
+                    output.writeLong(entry.getSequence());
+                    output.writeInt(name.length);
+                    output.write(name);
+                    offset += Double.BYTES + Long.BYTES + Integer.BYTES + name.length;
+                }
+                buffered.clear();
+            }
+        }
+    }
+
+    private SectorSummary merge(String name, PayrollSector payrollSector) throws IOException {
+        Sector sector = new Sector(name);
+        List<PayrollEntry> buffered = payrollSector.getBuffered();
+        buffered.sort(BY_SALARY);
+        List<DataInputStream> inputs = new ArrayList<>();
+        try {
+            PriorityQueue<PayrollCursor> cursors = new PriorityQueue<>(Comparator.comparing(PayrollCursor::current, BY_SALARY));
+            for (PayrollRun run : payrollSector.getRuns()) {
+                FileChannel channel = FileChannel.open(run.getSpill(), StandardOpenOption.READ);
+                DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(run.getOffset()))));
+                inputs.add(input);
+                PayrollCursor cursor = new PayrollCursor(input, run.getCount());
+                if (cursor.advance()) {
+                    cursors.add(cursor);
+                }
+            }
+            PayrollCursor memory = new PayrollCursor(buffered.iterator());
+            if (memory.advance()) {
+                cursors.add(memory);
+            }
+            List<Collaborator> collaborators = new ArrayList<>((int) payrollSector.getSalaries().getCount());
+            SectorFingerprint fingerprint = new SectorFingerprint();
+            while (!cursors.isEmpty()) {
+                PayrollCursor cursor = cursors.poll();
+                Collaborator collaborator = new Collaborator(cursor.current().getName(), cursor.current().getSalary(), sector);
+                collaborators.add(collaborator);
+                fingerprint.add(collaborator);
+                if (cursor.advance()) {
+                    cursors.add(cursor);
+                }
+            }
+            buffered.clear();
+            payrollSector.getRuns().clear();
+            double total = payrollSector.getSalaries().getSum();
+            return new SectorSummary(total, collaborators, fingerprint.finish(total));
+        } finally {
+            for (DataInputStream input : inputs) {
+                input.close();
+            }
+        }
+    }
+}
+
+class PayrollCursor {
+    private final DataInputStream input;
+    private final Iterator<PayrollEntry> entries;
+    private int remaining;
+    private PayrollEntry current;
+
+    public PayrollCursor(DataInputStream input, int count) {
+        this.input = input;
+        this.entries = null;
+        this.remaining = count;
+    }
+
+    public PayrollCursor(Iterator<PayrollEntry> entries) {
+        this.input = null;
+        this.entries = entries;
+    }
+
+    public PayrollEntry current() {
+        return current;
+    }
+
+    public boolean advance() throws IOException {
+        if (entries != null) {
+            current = entries.hasNext() ? entries.next() : null;
+            return current != null;
+        }
+        if (remaining == 0) {
+            current = null;
+            return false;
+        }
+        remaining--;
+        double salary = input.readDouble();
+        long sequence = input.readLong();
+        byte[] name = new byte[input.readInt()];
+        input.readFully(name);
+        current = new PayrollEntry(new String(name, StandardCharsets.UTF_8), salary, sequence);
+        return true;
+    }
+}
+
+class PartialSectorSummary {
+    static final byte COMPILED = 0;
+    static final byte INVALID_SALARY = 1;
+    static final byte INVALID_SECTOR = 2;
+
+    private final CompensatedSum total;
+    private final List<Collaborator> collaborators;
+
+    public PartialSectorSummary(CompensatedSum total, List<Collaborator> collaborators) {
+        this.total = total;
+        this.collaborators = collaborators;
+    }
+
+    public CompensatedSum getTotal() {
+        return total;
+    }
+
+    public List<Collaborator> getCollaborators() {
+        return collaborators;
+    }
+
+    public SectorSummary toSummary() {
+        return new SectorSummary(total.get(), collaborators);
+    }
+
+    public static Map<String, PartialSectorSummary> of(Collaborators collaborators) throws InvalidSalaryException, InvalidSectorException {
+        if (!collaborators.isSalariesValid()) {
+            throw new InvalidSalaryException("salary is required");
+        }
+        if (!collaborators.isSectorsValid()) {
+            throw new InvalidSectorException("sector is required");
+        }
+        Map<String, PartialSectorSummary> partials = new TreeMap<>();
+        for (Collaborator collaborator : collaborators.get()) {
+            PartialSectorSummary partial = partials.computeIfAbsent(collaborator.getSector().getName(), it -> new PartialSectorSummary(new CompensatedSum(), new ArrayList<>()));
+            partial.total.add(collaborator.getSalary());
+            partial.collaborators.add(collaborator);
+        }
+        for (PartialSectorSummary partial : partials.values()) {
+            partial.collaborators.sort(Comparator.comparingDouble(Collaborator::getSalary));
+        }
+        return partials;
+    }
+
+    // status byte, then per sector: name, sum, compensation, count and the (name, salary) run in salary order
+    public static void write(Map<String, PartialSectorSummary> partials, DataOutput output) throws IOException {
+        output.writeByte(COMPILED);
+        output.writeInt(partials.size());
+        for (Map.Entry<String, PartialSectorSummary> partial : partials.entrySet()) {
+            output.writeUTF(partial.getKey());
+            output.writeDouble(partial.getValue().total.sum());
+            output.writeDouble(partial.getValue().total.compensation());
+            output.writeInt(partial.getValue().collaborators.size());
+            for (Collaborator collaborator : partial.getValue().collaborators) {
+                output.writeUTF(collaborator.getName());
+                output.writeDouble(collaborator.getSalary());
+            }
+        }
+    }
+
+    public static void writeFailure(byte status, DataOutput output) throws IOException {
+        output.writeByte(status);
+    }
+
+    public static Map<String, PartialSectorSummary> read(DataInput input) throws IOException, InvalidSalaryException, InvalidSectorException {
+        byte status = input.readByte();
+        if (status == INVALID_SALARY) {
+            throw new InvalidSalaryException("salary is required");
+        }
+        if (status == INVALID_SECTOR) {
+            throw new InvalidSectorException("sector is required");
+        }
+        if (status != COMPILED) {
+            throw new IOException("unknown partial summary status " + status);
+        }
+        int sectors = input.readInt();
+        Map<String, PartialSectorSummary> partials = new TreeMap<>();
+        for (int index = 0; index < sectors; index++) {
+            Sector sector = new Sector(input.readUTF());
+            CompensatedSum total = new CompensatedSum(input.readDouble(), input.readDouble());
+            int count = input.readInt();
+            if (count < 0) {
+                throw new IOException("negative collaborator count for sector " + sector.getName());
+            }
+            List<Collaborator> collaborators = new ArrayList<>(count);
+            for (int collaborator = 0; collaborator < count; collaborator++) {
+                collaborators.add(new Collaborator(input.readUTF(), input.readDouble(), sector));
+            }
+            partials.put(sector.getName(), new PartialSectorSummary(total, collaborators));
+        }
+        return partials;
+    }
+}
+
+class SectorShardCoordinator {
+    // stderr is collected while stdout is read, so a chatty worker cannot block on either pipe
+    public Map<String, SectorSummary> mergeWorkers(List<Process> workers) throws IOException, InvalidSalaryException, InvalidSectorException {
+        List<ByteArrayOutputStream> errors = new ArrayList<>();
+        List<Thread> errorReaders = new ArrayList<>();
+        for (Process worker : workers) {
+            ByteArrayOutputStream error = new ByteArrayOutputStream();
+            Thread errorReader = new Thread(() -> copy(worker.getErrorStream(), error), "shard-stderr");
+            errorReader.setDaemon(true);
+            errorReader.start();
+            errors.add(error);
+            errorReaders.add(errorReader);
+        }
+        List<InputStream> outputs = new ArrayList<>();
+        workers.forEach(it -> outputs.add(it.getInputStream()));
+        Map<String, SectorSummary> merged;
+        try {
+            merged = merge(outputs);
+        } catch (IOException e) {
+            // a worker that died leaves a short output, and its exit status and stderr explain why better than the read does
+            checkWorkers(workers, errorReaders, errors, e);
+            throw e;
+        }
+        checkWorkers(workers, errorReaders, errors, null);
+        return merged;
+    }
+
+    public Map<String, SectorSummary> merge(List<InputStream> shards) throws IOException, InvalidSalaryException, InvalidSectorException {
+        List<Map<String, PartialSectorSummary>> partials = new ArrayList<>();
+        InvalidSectorException invalidSector = null;
+        try {
+            for (int index = 0; index < shards.size(); index++) {
+                try {
+                    partials.add(PartialSectorSummary.read(new DataInputStream(new BufferedInputStream(shards.get(index)))));
+                } catch (InvalidSectorException e) {
+                    // every shard is read first so that an invalid salary anywhere still wins, as in compile
+                    invalidSector = e;
+                } catch (IOException e) {
+                    throw new IOException("shard " + index + " is truncated or corrupted", e);
+                }
+            }
+        } finally {
+            close(shards);
+        }
+        if (invalidSector != null) {
+            throw invalidSector;
+        }
+        return mergePartials(partials);
+    }
+
+    // unread output is drained so no worker stays blocked on a full pipe
+    private static void close(List<InputStream> shards) throws IOException {
+        IOException failure = null;
+        byte[] buffer = new byte[8192];
+        for (InputStream shard : shards) {
+            try (InputStream closing = shard) {
+                while (closing.read(buffer) != -1) {
+                    // discard
+                }
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static void checkWorkers(List<Process> workers, List<Thread> errorReaders, List<ByteArrayOutputStream> errors, IOException cause) throws IOException {
+        for (int index = 0; index < workers.size(); index++) {
+            int status;
+            try {
+                status = workers.get(index).waitFor();
+                errorReaders.get(index).join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for shard " + index);
+            }
+            if (status != 0) {
+                throw new IOException("shard " + index + " failed with exit status " + status + ": " + new String(errors.get(index).toByteArray(), StandardCharsets.UTF_8).trim(), cause);
+            }
+        }
     }
 
-    @Override
-    public String toString() {
-        return "Collaborator{" +
-                "name='" + name + '\'' +
-                '}';
+    private static void copy(InputStream input, ByteArrayOutputStream output) {
+        byte[] buffer = new byte[8192];
+        try (InputStream closing = input) {
+            int read;
+            while ((read = closing.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            // the worker is gone; whatever it wrote so far is all there is to report
+        }
+    }
+
+    // shards are ordered, so equal salaries keep shard order and contiguous shards reproduce compile's collaborator order;
+    // totals add up each shard's compensated sum instead of one pass over the whole list, so they can differ from compile in the last ulp
+    public Map<String, SectorSummary> mergePartials(List<Map<String, PartialSectorSummary>> shards) {
+        Set<String> sectors = new TreeSet<>();
+        shards.forEach(it -> sectors.addAll(it.keySet()));
+        Map<String, SectorSummary> summaries = new HashMap<>();
+        for (String sector : sectors) {
+            List<List<Collaborator>> runs = new ArrayList<>();
+            CompensatedSum total = new CompensatedSum();
+            int size = 0;
+            for (Map<String, PartialSectorSummary> shard : shards) {
+                PartialSectorSummary partial = shard.get(sector);
+                List<Collaborator> run = partial == null ? Collections.emptyList() : partial.getCollaborators();
+                if (partial != null) {
+                    total.merge(partial.getTotal());
+                    size += run.size();
+                }
+                runs.add(run);
+            }
+            SectorFingerprint fingerprint = new SectorFingerprint();
+            List<Collaborator> merged = mergeRuns(runs, size, fingerprint);
+            summaries.put(sector, new SectorSummary(total.get(), merged, fingerprint.finish(total.get())));
+        }
+        return summaries;
+    }
+
+    private static List<Collaborator> mergeRuns(List<List<Collaborator>> runs, int size, SectorFingerprint fingerprint) {
+        int[] positions = new int[runs.size()];
+        PriorityQueue<Integer> heads = new PriorityQueue<>(Comparator.<Integer>comparingDouble(run -> runs.get(run).get(positions[run]).getSalary()).thenComparingInt(run -> run));
+        for (int run = 0; run < runs.size(); run++) {
+            if (!runs.get(run).isEmpty()) {
+                heads.add(run);
+            }
+        }
+        List<Collaborator> merged = new ArrayList<>(size);
+        while (!heads.isEmpty()) {
+            int run = heads.poll();
+            Collaborator collaborator = runs.get(run).get(positions[run]++);
+            merged.add(collaborator);
+            fingerprint.add(collaborator);
+            if (positions[run] < runs.get(run).size()) {
+                heads.add(run);
+            }
+        }
+        return merged;
     }
 }
 
-class SectorSummary {
-    private Double total;
-    private List<Collaborator> collaborators;
+class SectorShardWorker {
+    // reads a name,salary,sector shard from stdin and writes its encoded partial summaries to stdout
+    public static void main(String[] args) throws IOException {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(System.out));
+        try {
+            PartialSectorSummary.write(PartialSectorSummary.of(new Collaborators(read(System.in))), output);
+        } catch (InvalidSalaryException e) {
+            PartialSectorSummary.writeFailure(PartialSectorSummary.INVALID_SALARY, output);
+        } catch (InvalidSectorException e) {
+            PartialSectorSummary.writeFailure(PartialSectorSummary.INVALID_SECTOR, output);
+        }
+        output.flush();
+    }
 
-    public SectorSummary(Double total, List<Collaborator> collaborators) {
-        this.total = total;
-        this.collaborators = collaborators;
+    static List<Collaborator> read(InputStream shard) throws IOException, InvalidSalaryException {
+        Map<String, Sector> sectors = new HashMap<>();
+        List<Collaborator> collaborators = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(shard, StandardCharsets.UTF_8));
+        String line;
+        for (long lineNumber = 1; (line = reader.readLine()) != null; lineNumber++) {
+            if (PayrollFileCompiler.isSkipped(line, lineNumber)) {
+                continue;
+            }
+            String[] fields = PayrollFileCompiler.fields(line, lineNumber);
+            Sector sector = fields[2].isEmpty() ? null : sectors.computeIfAbsent(fields[2], Sector::new);
+            collaborators.add(new Collaborator(fields[0], PayrollFileCompiler.salary(fields[1], lineNumber), sector));
+        }
+        return collaborators;
     }
+}
 
-    @Override
-    public String toString() {
-        return "SectorSummary{" +
-                "total=" + total +
-                ", collaborators=" + collaborators +
-                '}';
+class SalarySketch {
+    public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+
+    private final double relativeAccuracy;
+    private final double gamma;
+    private final double logGamma;
+    private long[] counts = new long[0];
+    private int offset;
+    private long zeroCount;
+    private long infiniteCount;
+    private long nanCount;
+    private long count;
+
+    public SalarySketch() {
+        this(DEFAULT_RELATIVE_ACCURACY);
     }
 
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        SectorSummary that = (SectorSummary) o;
-        return Objects.equals(total, that.total) &&
-                Objects.equals(collaborators, that.collaborators);
+    // bucket i holds (gamma^(i-1), gamma^i], so its midpoint is within relativeAccuracy of every salary in it
+    public SalarySketch(double relativeAccuracy) {
+        if (!(relativeAccuracy > 0 && relativeAccuracy < 1)) {
+            throw new IllegalArgumentException("relative accuracy must be between 0 and 1");
+        }
+        this.relativeAccuracy = relativeAccuracy;
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
     }
 
-    @Override
-    public int hashCode() {
-        return Objects.hash(total, collaborators);
+    // compile accepts infinite and NaN salaries, which get their own counters instead of a log bucket
+    public void add(double salary) {
+        count++;
+        if (Double.isNaN(salary)) {
+            nanCount++;
+            return;
+        }
+        if (salary == Double.POSITIVE_INFINITY) {
+            infiniteCount++;
+            return;
+        }
+        if (salary < Double.MIN_NORMAL) {
+            zeroCount++;
+            return;
+        }
+        int index = (int) Math.ceil(Math.log(salary) / logGamma);
+        ensure(index);
+        counts[index - offset]++;
+    }
+
+    public void merge(SalarySketch other) {
+        if (other.relativeAccuracy != relativeAccuracy) {
+            throw new IllegalArgumentException("sketches with different relative accuracy cannot be merged");
+        }
+        for (int bucket = 0; bucket < other.counts.length; bucket++) {
+            if (other.counts[bucket] != 0) {
+                ensure(bucket + other.offset);
+                counts[bucket + other.offset - offset] += other.counts[bucket];
+            }
+        }
+        zeroCount += other.zeroCount;
+        infiniteCount += other.infiniteCount;
+        nanCount += other.nanCount;
+        count += other.count;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double quantile(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("quantile must be between 0 and 1");
+        }
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long rank = (long) (quantile * (count - 1));
+        long seen = zeroCount;
+        if (rank < seen) {
+            return 0.0;
+        }
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            seen += counts[bucket];
+            if (rank < seen) {
+                return 2 * Math.pow(gamma, bucket + offset) / (gamma + 1);
+            }
+        }
+        // Double.compare order puts infinity and then NaN after every finite salary
+        seen += infiniteCount;
+        if (rank < seen) {
+            return Double.POSITIVE_INFINITY;
+        }
+        seen += nanCount;
+        if (rank < seen) {
+            return Double.NaN;
+        }
+        throw new IllegalStateException("bucket counts do not add up to " + count);
+    }
+
+    private void ensure(int index) {
+        if (counts.length == 0) {
+            counts = new long[16];
+            offset = index - counts.length / 2;
+        } else if (index < offset) {
+            int length = Math.max(counts.length * 2, offset + counts.length - index);
+            long[] grown = new long[length];
+            System.arraycopy(counts, 0, grown, length - counts.length, counts.length);
+            offset += counts.length - length;
+            counts = grown;
+        } else if (index >= offset + counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(counts.length * 2, index - offset + 1));
+        }
     }
 }
 
-class Collaborators {
-    private List<Collaborator> collaborators;
+class SectorStatistics {
+    private static final Comparator<TopEarner> LOWEST_FIRST = Comparator.comparingDouble(TopEarner::getSalary).thenComparing(Comparator.comparingLong(TopEarner::getSequence).reversed());
 
-    public Collaborators(List<Collaborator> collaborators) {
-        this.collaborators = collaborators;
+    private final int topN;
+    private final CompensatedSum total = new CompensatedSum();
+    private final SalarySketch salaries = new SalarySketch();
+    private final PriorityQueue<TopEarner> topEarners;
+    private long count;
+
+    public SectorStatistics(int topN) {
+        if (topN < 0) {
+            throw new IllegalArgumentException("topN cannot be negative");
+        }
+        this.topN = topN;
+        this.topEarners = new PriorityQueue<>(topN + 1, LOWEST_FIRST);
     }
 
-    public boolean isSalariesValid() {
-        return this.collaborators.stream().noneMatch(it -> it.getSalary() == null || it.getSalary() < 0);
+    public void add(Collaborator collaborator) {
+        offer(new TopEarner(collaborator, count++));
+        total.add(collaborator.getSalary());
+        salaries.add(collaborator.getSalary());
     }
 
-    public boolean isSectorsValid() {
-        return this.collaborators.stream().noneMatch(it -> it.getSector() == null);
+    // other is treated as coming after this, so ties among the top earners keep their order across merges
+    public void merge(SectorStatistics other) {
+        for (TopEarner earner : other.topEarners) {
+            offer(new TopEarner(earner.getCollaborator(), earner.getSequence() + count));
+        }
+        total.merge(other.total);
+        salaries.merge(other.salaries);
+        count += other.count;
     }
 
-    public List<Collaborator> get() {
-        return this.collaborators;
+    public double getTotal() {
+        return total.get();
     }
-}
 
-class SectorService {
-    public Map<String, SectorSummary> compile(Collaborators collaborators) throws InvalidSalaryException, InvalidSectorException {
-        validateCollaborators(collaborators);
-        return collaborators.get()
-                .stream()
-                .collect(Collectors.groupingBy(c -> c.getSector().getName()))
-                .entrySet()
-                .stream()
-                .collect(Collectors.toMap(Map.Entry::getKey, e -> parseCollaboratorsToSectorSummary(e.getValue())));
-    }
-    
-    private SectorSummary parseCollaboratorsToSectorSummary(List<Collaborator> collaborators) {
-        return new SectorSummary(
-                collaborators
-                        .stream()
-                        .mapToDouble(Collaborator::getSalary).sum(),
-                collaborators
-                        .stream()
-                        .sorted(Comparator.comparingDouble(Collaborator::getSalary))
-                        .collect(Collectors.toList())
-        );
+    public long getCount() {
+        return count;
     }
 
-    private void validateCollaborators(Collaborators collaborators) throws InvalidSalaryException, InvalidSectorException {
-        if (!collaborators.isSalariesValid()) {
-            throw new InvalidSalaryException("salary is required");
+    public List<Collaborator> getTopEarners() {
+        List<TopEarner> earners = new ArrayList<>(topEarners);
+        earners.sort(LOWEST_FIRST.reversed());
+        return earners.stream().map(TopEarner::getCollaborator).collect(Collectors.toList());
+    }
+
+    public double getPercentile(double percentile) {
+        return salaries.quantile(percentile / 100);
+    }
+
+    private void offer(TopEarner earner) {
+        if (topEarners.size() < topN) {
+            topEarners.add(earner);
+        } else if (topN > 0 && LOWEST_FIRST.compare(earner, topEarners.peek()) > 0) {
+            topEarners.poll();
+            topEarners.add(earner);
         }
-        if (!collaborators.isSectorsValid()) {
-            throw new InvalidSectorException("sector is required");
+    }
+
+    private static class TopEarner {
+        private final Collaborator collaborator;
+        private final double salary;
+        private final long sequence;
+
+        TopEarner(Collaborator collaborator, long sequence) {
+            this.collaborator = collaborator;
+            this.salary = collaborator.getSalary();
+            this.sequence = sequence;
+        }
+
+        Collaborator getCollaborator() {
+            return collaborator;
+        }
+
+        double getSalary() {
+            return salary;
+        }
+
+        long getSequence() {
+            return sequence;
         }
     }
 }
 
 public class UC03 {
 
+    private static final String LONG_NAME = String.join("", Collections.nCopies(70000, "a"));
+
     private SectorService service = new SectorService();
 
     @Test
@@ -251,4 +1673,581 @@ public class UC03 {
 		Assertions.assertEquals(expected.get("XTW04"), compiled.get("XTW04"));
 		Assertions.assertEquals(expected.get("TTW01"), compiled.get("TTW01"));
     }
+
+    @Test
+    public void UC03_08() throws InvalidSalaryException, InvalidSectorException {
+        List<Sector> sectors = Arrays.asList(new Sector("XTW04"), new Sector("TTW01"), new Sector("XTW04"));
+        List<Collaborator> collaborators = new ArrayList<>();
+        for (int index = 0; index < 1000; index++) {
+            collaborators.add(new Collaborator("Collaborator " + index, index % 3 == 0 ? 1e16 : (index % 7) * 0.1, sectors.get(index % sectors.size())));
+        }
+        Map<String, SectorSummary> expected = collaborators.stream()
+                .collect(Collectors.groupingBy(c -> c.getSector().getName()))
+                .entrySet()
+                .stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> new SectorSummary(
+                        e.getValue().stream().mapToDouble(Collaborator::getSalary).sum(),
+                        e.getValue().stream().sorted(Comparator.comparingDouble(Collaborator::getSalary)).collect(Collectors.toList()))));
+
+        Assertions.assertEquals(expected, service.compile(new Collaborators(collaborators)));
+    }
+
+    @Test
+    public void UC03_09() {
+        List<Collaborator> collaborators = Arrays.asList(
+                new Collaborator("Maycow Antunes", 100000.0, null),
+                new Collaborator("Paulo Gustavo", -1.0, new Sector("TTW01"))
+        );
+        Assertions.assertThrows(InvalidSalaryException.class, () -> {
+            service.compile(new Collaborators(collaborators));
+        });
+
+        List<Collaborator> unnamed = Arrays.asList(
+                new Collaborator("Maycow Antunes", 10.0, new Sector(null)),
+                new Collaborator("Paulo Gustavo", -1.0, new Sector("TTW01"))
+        );
+        Assertions.assertThrows(InvalidSalaryException.class, () -> service.compileSequentially(new Collaborators(unnamed)));
+        Assertions.assertThrows(InvalidSalaryException.class, () -> service.compileInParallel(new Collaborators(unnamed)));
+        List<Collaborator> unnamedAndMissing = Arrays.asList(
+                new Collaborator("Maycow Antunes", 10.0, new Sector(null)),
+                new Collaborator("Paulo Gustavo", 10.0, null)
+        );
+        Assertions.assertThrows(InvalidSectorException.class, () -> service.compileSequentially(new Collaborators(unnamedAndMissing)));
+        Assertions.assertThrows(InvalidSectorException.class, () -> service.compileInParallel(new Collaborators(unnamedAndMissing)));
+        Assertions.assertThrows(NullPointerException.class, () -> service.compileSequentially(new Collaborators(unnamed.subList(0, 1))));
+        Assertions.assertThrows(NullPointerException.class, () -> service.compileInParallel(new Collaborators(unnamed.subList(0, 1))));
+    }
+
+    @Test
+    public void UC03_10() throws InvalidSalaryException, InvalidSectorException {
+        List<Collaborator> collaborators = new ArrayList<>();
+        for (int index = 0; index < SectorService.PARALLEL_THRESHOLD * 3; index++) {
+            collaborators.add(new Collaborator("Collaborator " + index, (index % 13) * 1000.1, new Sector("XTW" + index % 50)));
+        }
+        Map<String, SectorSummary> compiled = service.compile(new Collaborators(collaborators));
+        Assertions.assertEquals(50, compiled.size());
+        Assertions.assertEquals(service.compileSequentially(new Collaborators(collaborators)), compiled);
+    }
+
+    @Test
+    public void UC03_11() {
+        List<Collaborator> collaborators = Arrays.asList(
+                new Collaborator("Maycow Antunes", 100000.0, null),
+                new Collaborator("Paulo Gustavo", null, new Sector("TTW01"))
+        );
+        Assertions.assertThrows(InvalidSalaryException.class, () -> service.compileInParallel(new Collaborators(collaborators)));
+        Assertions.assertThrows(InvalidSectorException.class, () -> service.compileInParallel(new Collaborators(collaborators.subList(0, 1))));
+    }
+
+    @Test
+    public void UC03_12() throws InvalidSalaryException, InvalidSectorException {
+        Collaborator andre = new Collaborator("André Justi", 500000.0, new Sector("XTW04"));
+        Collaborator paulo = new Collaborator("Paulo Gustavo", 100000.0, new Sector("TTW01"));
+        Collaborator wellington = new Collaborator("Wellington Macedo", 300000.0, new Sector("XTW04"));
+        Collaborator maycow = new Collaborator("Maycow Antunes", 300000.0, new Sector("TTW01"));
+        SectorLedger ledger = new SectorLedger();
+        for (Collaborator collaborator : Arrays.asList(andre, paulo, wellington, maycow)) {
+            ledger.hire(collaborator);
+        }
+        Assertions.assertEquals(service.compile(new Collaborators(Arrays.asList(andre, paulo, wellington, maycow))), ledger.summaries());
+
+        Collaborator promoted = new Collaborator("Wellington Macedo", 600000.0, new Sector("XTW04"));
+        Collaborator moved = new Collaborator("Maycow Antunes", 300000.0, new Sector("XTW04"));
+        ledger.fire(paulo);
+        ledger.changeSalary(wellington, promoted);
+        ledger.moveSector(maycow, moved);
+
+        Assertions.assertNull(ledger.summary("TTW01"));
+        Assertions.assertEquals(service.compile(new Collaborators(Arrays.asList(andre, promoted, moved))), ledger.summaries());
+        Assertions.assertSame(ledger.summary("XTW04"), ledger.summary("XTW04"));
+
+        // salaries with no exact binary representation, where the rounding of the total depends on the summation order
+        Random random = new Random(12);
+        List<Collaborator> hired = new ArrayList<>();
+        SectorLedger randomLedger = new SectorLedger();
+        for (int index = 0; index < 2000 * 50; index++) {
+            Collaborator collaborator = new Collaborator("Collaborator " + index, random.nextInt(100000000) / 100.0 + 0.1, new Sector("XTW" + index % 2000));
+            hired.add(collaborator);
+            randomLedger.hire(collaborator);
+        }
+        Assertions.assertEquals(service.compile(new Collaborators(hired)), randomLedger.summaries());
+        for (int index = 0; index < 3000; index++) {
+            int position = random.nextInt(hired.size());
+            Collaborator previous = hired.get(position);
+            if (index % 3 == 0) {
+                randomLedger.fire(previous);
+                hired.remove(position);
+            } else {
+                Collaborator current = new Collaborator(previous.getName(), random.nextInt(100000000) / 100.0 + 0.1, index % 3 == 1 ? previous.getSector() : new Sector("XTW" + random.nextInt(2000)));
+                randomLedger.changeSalary(previous, current);
+                hired.set(position, current);
+            }
+        }
+        Assertions.assertEquals(service.compile(new Collaborators(hired)), randomLedger.summaries());
+    }
+
+    @Test
+    public void UC03_13() throws InvalidSalaryException, InvalidSectorException {
+        Collaborator andre = new Collaborator("André Justi", 500000.0, new Sector("XTW04"));
+        SectorLedger ledger = new SectorLedger();
+        ledger.hire(andre);
+        Assertions.assertThrows(InvalidSalaryException.class, () -> ledger.hire(new Collaborator("Paulo Gustavo", -1.0, null)));
+        Assertions.assertThrows(InvalidSectorException.class, () -> ledger.changeSalary(andre, new Collaborator("André Justi", 600000.0, null)));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ledger.hire(andre));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ledger.fire(new Collaborator("Maycow Antunes", 300000.0, new Sector("XTW04"))));
+        Assertions.assertEquals(service.compile(new Collaborators(Collections.singletonList(andre))), ledger.summaries());
+    }
+
+    @Test
+    public void UC03_14() throws InvalidSalaryException, InvalidSectorException {
+        List<Collaborator> collaborators = new ArrayList<>();
+        for (int index = 0; index < 1000; index++) {
+            collaborators.add(new Collaborator("Collaborator " + index, (index % 11) * 1000.0, new Sector("XTW" + index % 7)));
+        }
+        Assertions.assertEquals(service.compile(new Collaborators(collaborators)), service.compile(CollaboratorBatch.of(new Collaborators(collaborators))));
+
+        Collaborator unnamed = new Collaborator("Maycow Antunes", 10.0, new Sector(null));
+        Assertions.assertThrows(InvalidSalaryException.class, () -> CollaboratorBatch.of(new Collaborators(Arrays.asList(unnamed, new Collaborator("Paulo Gustavo", -1.0, new Sector("TTW01"))))));
+        Assertions.assertThrows(InvalidSectorException.class, () -> CollaboratorBatch.of(new Collaborators(Arrays.asList(unnamed, new Collaborator("Paulo Gustavo", 10.0, null)))));
+        Assertions.assertThrows(NullPointerException.class, () -> CollaboratorBatch.of(new Collaborators(Collections.singletonList(unnamed))));
+    }
+
+    @Test
+    public void UC03_15() throws InvalidSalaryException, InvalidSectorException {
+        List<Collaborator> collaborators = new ArrayList<>();
+        collaborators.add(new Collaborator("André Justi", 1e16, new Sector("XTW04")));
+        for (int index = 0; index < 10; index++) {
+            collaborators.add(new Collaborator("Collaborator " + index, 1.0, new Sector("XTW04")));
+        }
+        Map<String, SectorSummary> compiled = service.compile(CollaboratorBatch.of(new Collaborators(collaborators)));
+        Assertions.assertEquals(Double.valueOf(1e16 + 10), compiled.get("XTW04").getTotal());
+        Assertions.assertThrows(InvalidSalaryException.class, () -> CollaboratorBatch.of(new Collaborators(Arrays.asList(
+                new Collaborator("Maycow Antunes", 100000.0, null),
+                new Collaborator("Paulo Gustavo", null, new Sector("TTW01"))))));
+        Assertions.assertThrows(InvalidSectorException.class, () -> CollaboratorBatch.of(new Collaborators(Arrays.asList(
+                new Collaborator("Maycow Antunes", 100000.0, null)))));
+    }
+
+    @Test
+    public void UC03_16() throws IOException, InvalidSalaryException, InvalidSectorException {
+        List<Collaborator> collaborators = Arrays.asList(
+                new Collaborator("André Justi", 500000.0, new Sector("XTW04")),
+                new Collaborator("Paulo Gustavo", 100000.0, new Sector("TTW01")),
+                new Collaborator("Wellington Macedo", 300000.0, new Sector("XTW04")),
+                new Collaborator("Maycow Antunes", 300000.0, new Sector("TTW01")),
+                new Collaborator("Silva, João", 300000.0, new Sector("XTW04")),
+                new Collaborator("Maria \"Duda\" Souza", 100000.0, new Sector("XTW04")),
+                new Collaborator("Ana Lima", 300000.0, new Sector("XTW04")),
+                new Collaborator(LONG_NAME, 0.1, new Sector("XTW04"))
+        );
+        Path spillDirectory = Files.createTempDirectory("payroll");
+        Path payroll = Files.createTempFile("payroll", ".csv");
+        try {
+            Files.write(payroll, Arrays.asList(
+                    "name,salary,sector",
+                    "André Justi,500000.0,XTW04",
+                    "Paulo Gustavo,100000,TTW01",
+                    "Wellington Macedo,300000.0,XTW04",
+                    "Maycow Antunes,3e5,TTW01",
+                    "\"Silva, João\",300000.0,XTW04",
+                    "\"Maria \"\"Duda\"\" Souza\",100000.0,XTW04",
+                    "Ana Lima,300000.0,XTW04",
+                    LONG_NAME + ",0.1,XTW04"
+            ), StandardCharsets.UTF_8);
+            Map<String, SectorSummary> compiled = new HashMap<>();
+            new PayrollFileCompiler(2, spillDirectory).compile(payroll, (sector, summary) -> {
+                compiled.put(sector, summary);
+                // eight collaborators two at a time spill four files, however many sectors they hold
+                try (Stream<Path> spills = Files.list(spillDirectory)) {
+                    Assertions.assertEquals(4, spills.count());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+
+            Map<String, SectorSummary> expected = service.compile(new Collaborators(collaborators));
+            Assertions.assertEquals(expected.keySet(), compiled.keySet());
+            for (String sector : expected.keySet()) {
+                List<Collaborator> expectedCollaborators = expected.get(sector).getCollaborators();
+                List<Collaborator> compiledCollaborators = compiled.get(sector).getCollaborators();
+                Assertions.assertEquals(expected.get(sector).getTotal(), compiled.get(sector).getTotal());
+                Assertions.assertEquals(expectedCollaborators.stream().map(Collaborator::getName).collect(Collectors.toList()), compiledCollaborators.stream().map(Collaborator::getName).collect(Collectors.toList()));
+                Assertions.assertEquals(expectedCollaborators.stream().map(Collaborator::getSalary).collect(Collectors.toList()), compiledCollaborators.stream().map(Collaborator::getSalary).collect(Collectors.toList()));
+            }
+            try (Stream<Path> runs = Files.list(spillDirectory)) {
+                Assertions.assertEquals(0, runs.count());
+            }
+        } finally {
+            Files.delete(payroll);
+            Files.delete(spillDirectory);
+        }
+    }
+
+    @Test
+    public void UC03_17() throws IOException {
+        Path spillDirectory = Files.createTempDirectory("payroll");
+        Path payroll = Files.createTempFile("payroll", ".csv");
+        try {
+            Files.write(payroll, Arrays.asList("André Justi,500000.0,XTW04", "Maycow Antunes,100000.0,", "Paulo Gustavo,300000.0,TTW01", "Wellington Macedo,,XTW04"), StandardCharsets.UTF_8);
+            Assertions.assertThrows(InvalidSalaryException.class, () -> new PayrollFileCompiler(1, spillDirectory).compile(payroll, (sector, summary) -> { }));
+
+            Files.write(payroll, Arrays.asList("André Justi,500000.0,XTW04", "Maycow Antunes,100000.0,", "Paulo Gustavo,300000.0,TTW01"), StandardCharsets.UTF_8);
+            Assertions.assertThrows(InvalidSectorException.class, () -> new PayrollFileCompiler(1, spillDirectory).compile(payroll, (sector, summary) -> { }));
+
+            Files.write(payroll, Collections.singletonList("André Justi;500000.0;XTW04"), StandardCharsets.UTF_8);
+            Assertions.assertThrows(IOException.class, () -> new PayrollFileCompiler(1, spillDirectory).compile(payroll, (sector, summary) -> { }));
+            try (Stream<Path> runs = Files.list(spillDirectory)) {
+                Assertions.assertEquals(0, runs.count());
+            }
+        } finally {
+            Files.delete(payroll);
+            Files.delete(spillDirectory);
+        }
+    }
+
+    @Test
+    public void UC03_18() throws IOException, URISyntaxException, InvalidSalaryException, InvalidSectorException {
+        // with this seed one sector's shard-wise compensated total rounds differently from compile's single pass
+        Random random = new Random(23);
+        List<String> payroll = new ArrayList<>(Collections.singletonList("name,salary,sector"));
+        for (int index = 0; index < 300; index++) {
+            payroll.add("Collaborator " + index + "," + (random.nextInt(100000000) / 100.0 + 0.1) + ",XTW" + index % 3);
+        }
+        payroll.add("Ana Lima,0.1,XTW0");
+        payroll.add("João Silva,0.1,XTW0");
+        List<List<String>> shards = Arrays.asList(payroll.subList(0, 101), payroll.subList(101, 201), payroll.subList(201, payroll.size()));
+        String classPath = Paths.get(SectorShardWorker.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+
+        Map<String, SectorSummary> merged = new SectorShardCoordinator().mergeWorkers(startWorkers(classPath, shards));
+
+        Map<String, SectorSummary> expected = service.compile(new Collaborators(SectorShardWorker.read(new ByteArrayInputStream(String.join("\n", payroll).getBytes(StandardCharsets.UTF_8)))));
+        Assertions.assertEquals(expected.keySet(), merged.keySet());
+        Assertions.assertEquals(1, expected.keySet().stream().filter(it -> !expected.get(it).getTotal().equals(merged.get(it).getTotal())).count());
+        for (String sector : expected.keySet()) {
+            List<Collaborator> expectedCollaborators = expected.get(sector).getCollaborators();
+            List<Collaborator> mergedCollaborators = merged.get(sector).getCollaborators();
+            Assertions.assertEquals(expectedCollaborators.stream().map(Collaborator::getName).collect(Collectors.toList()), mergedCollaborators.stream().map(Collaborator::getName).collect(Collectors.toList()));
+            Assertions.assertEquals(expectedCollaborators.stream().map(Collaborator::getSalary).collect(Collectors.toList()), mergedCollaborators.stream().map(Collaborator::getSalary).collect(Collectors.toList()));
+            double total = expected.get(sector).getTotal();
+            Assertions.assertEquals(total, merged.get(sector).getTotal(), Math.ulp(total));
+        }
+
+        IOException failure = Assertions.assertThrows(IOException.class, () -> new SectorShardCoordinator().mergeWorkers(startWorkers(classPath + File.separator + "missing", shards.subList(0, 1))));
+        Assertions.assertTrue(failure.getMessage().startsWith("shard 0 failed with exit status "), failure.getMessage());
+        Assertions.assertTrue(failure.getMessage().contains(SectorShardWorker.class.getName()), failure.getMessage());
+    }
+
+    private static List<Process> startWorkers(String classPath, List<List<String>> shards) throws IOException {
+        List<Process> workers = new ArrayList<>();
+        for (List<String> shard : shards) {
+            Process worker = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", classPath, SectorShardWorker.class.getName())
+                    .start();
+            try (OutputStream input = worker.getOutputStream()) {
+                input.write(String.join("\n", shard).getBytes(StandardCharsets.UTF_8));
+            }
+            workers.add(worker);
+        }
+        return workers;
+    }
+
+    @Test
+    public void UC03_19() throws IOException, InvalidSalaryException, InvalidSectorException {
+        Map<String, PartialSectorSummary> first = PartialSectorSummary.of(new Collaborators(Arrays.asList(
+                new Collaborator("André Justi", 0.1, new Sector("XTW04")),
+                new Collaborator("Paulo Gustavo", 1e16, new Sector("XTW04")))));
+        Map<String, PartialSectorSummary> second = PartialSectorSummary.of(new Collaborators(Arrays.asList(
+                new Collaborator("Wellington Macedo", 0.1, new Sector("XTW04")),
+                new Collaborator("Maycow Antunes", 0.2, new Sector("TTW01")))));
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        PartialSectorSummary.write(second, new DataOutputStream(encoded));
+        Map<String, PartialSectorSummary> decoded = PartialSectorSummary.read(new DataInputStream(new ByteArrayInputStream(encoded.toByteArray())));
+
+        Map<String, SectorSummary> merged = new SectorShardCoordinator().mergePartials(Arrays.asList(first, decoded));
+        Assertions.assertEquals("[Collaborator{name='André Justi'}, Collaborator{name='Wellington Macedo'}, Collaborator{name='Paulo Gustavo'}]", merged.get("XTW04").getCollaborators().toString());
+        Assertions.assertEquals(Double.valueOf(1e16 + 0.2), merged.get("XTW04").getTotal());
+        Assertions.assertEquals(Double.valueOf(0.2), merged.get("TTW01").getTotal());
+
+        ByteArrayOutputStream salaryFailure = new ByteArrayOutputStream();
+        PartialSectorSummary.writeFailure(PartialSectorSummary.INVALID_SALARY, new DataOutputStream(salaryFailure));
+        ByteArrayOutputStream sectorFailure = new ByteArrayOutputStream();
+        PartialSectorSummary.writeFailure(PartialSectorSummary.INVALID_SECTOR, new DataOutputStream(sectorFailure));
+        Assertions.assertThrows(InvalidSalaryException.class, () -> new SectorShardCoordinator().merge(Arrays.asList(
+                new ByteArrayInputStream(sectorFailure.toByteArray()), new ByteArrayInputStream(salaryFailure.toByteArray()))));
+        Assertions.assertThrows(InvalidSectorException.class, () -> new SectorShardCoordinator().merge(Arrays.asList(
+                new ByteArrayInputStream(sectorFailure.toByteArray()), new ByteArrayInputStream(encoded.toByteArray()))));
+
+        List<Boolean> closed = new ArrayList<>();
+        List<ByteArrayInputStream> shards = new ArrayList<>();
+        for (byte[] shard : Arrays.asList(salaryFailure.toByteArray(), encoded.toByteArray(), encoded.toByteArray())) {
+            shards.add(new ByteArrayInputStream(shard) {
+                @Override
+                public void close() {
+                    closed.add(Boolean.TRUE);
+                }
+            });
+        }
+        Assertions.assertThrows(InvalidSalaryException.class, () -> new SectorShardCoordinator().merge(new ArrayList<>(shards)));
+        Assertions.assertEquals(3, closed.size());
+        for (ByteArrayInputStream shard : shards) {
+            Assertions.assertEquals(0, shard.available());
+        }
+    }
+
+    @Test
+    public void UC03_20() throws InvalidSalaryException, InvalidSectorException {
+        Random random = new Random(20);
+        String[] sectors = {"XTW04", "TTW01", "KTW02"};
+        List<Collaborator> collaborators = new ArrayList<>();
+        for (int index = 0; index < 20000; index++) {
+            double salary = index % 7 == 0 ? 0.0 : Math.floor(random.nextDouble() * 200) * 5000.0;
+            collaborators.add(new Collaborator("Collaborator " + index, salary, new Sector(sectors[index % sectors.length])));
+        }
+        Map<String, SectorStatistics> statistics = service.summarize(new Collaborators(collaborators), 10);
+        Map<String, SectorSummary> summaries = service.compileSequentially(new Collaborators(collaborators));
+
+        Assertions.assertEquals(summaries.keySet(), statistics.keySet());
+        for (String sector : summaries.keySet()) {
+            List<Collaborator> sorted = summaries.get(sector).getCollaborators();
+            SectorStatistics sectorStatistics = statistics.get(sector);
+            Assertions.assertEquals(sorted.size(), sectorStatistics.getCount());
+            Assertions.assertEquals(summaries.get(sector).getTotal().doubleValue(), sectorStatistics.getTotal(), 1e-6);
+
+            List<Collaborator> expected = new ArrayList<>(sorted);
+            expected.sort(Comparator.comparingDouble(Collaborator::getSalary).reversed());
+            Assertions.assertEquals(expected.subList(0, 10), sectorStatistics.getTopEarners());
+            for (double percentile : new double[]{0, 1, 25, 50, 75, 90, 99, 100}) {
+                double exact = sorted.get((int) (percentile / 100 * (sorted.size() - 1))).getSalary();
+                Assertions.assertEquals(exact, sectorStatistics.getPercentile(percentile), exact * SalarySketch.DEFAULT_RELATIVE_ACCURACY);
+            }
+        }
+    }
+
+    @Test
+    public void UC03_21() throws InvalidSalaryException, InvalidSectorException {
+        List<Collaborator> collaborators = Arrays.asList(
+                new Collaborator("André Justi", 500000.0, new Sector("XTW04")),
+                new Collaborator("Paulo Gustavo", 300000.0, new Sector("XTW04")),
+                new Collaborator("Wellington Macedo", 0.5, new Sector("XTW04")),
+                new Collaborator("Maycow Antunes", 300000.0, new Sector("XTW04")),
+                new Collaborator("Ana Lima", 500000.0, new Sector("XTW04")),
+                new Collaborator("João Silva", 1e12, new Sector("XTW04"))
+        );
+        SectorStatistics whole = service.summarize(new Collaborators(collaborators), 3).get("XTW04");
+        SectorStatistics first = service.summarize(new Collaborators(collaborators.subList(0, 2)), 3).get("XTW04");
+        first.merge(service.summarize(new Collaborators(collaborators.subList(2, 6)), 3).get("XTW04"));
+
+        Assertions.assertEquals("[Collaborator{name='João Silva'}, Collaborator{name='André Justi'}, Collaborator{name='Ana Lima'}]", whole.getTopEarners().toString());
+        Assertions.assertEquals(whole.getTopEarners(), first.getTopEarners());
+        Assertions.assertEquals(whole.getCount(), first.getCount());
+        Assertions.assertEquals(Double.valueOf(whole.getTotal()), Double.valueOf(first.getTotal()));
+        for (double percentile = 0; percentile <= 100; percentile += 10) {
+            Assertions.assertEquals(Double.valueOf(whole.getPercentile(percentile)), Double.valueOf(first.getPercentile(percentile)));
+        }
+        Assertions.assertEquals(Collections.emptyList(), service.summarize(new Collaborators(collaborators), 0).get("XTW04").getTopEarners());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new SalarySketch().merge(new SalarySketch(0.05)));
+        Assertions.assertThrows(InvalidSalaryException.class, () -> service.summarize(new Collaborators(Arrays.asList(
+                new Collaborator("André Justi", 500000.0, null), new Collaborator("Paulo Gustavo", null, new Sector("XTW04")))), 3));
+        Assertions.assertThrows(InvalidSectorException.class, () -> service.summarize(new Collaborators(Collections.singletonList(new Collaborator("André Justi", 500000.0, null))), 3));
+    }
+
+    @Test
+    public void UC03_22() throws InvalidSalaryException, InvalidSectorException {
+        double[] special = {-0.0, 0.0, Double.NaN, Double.longBitsToDouble(0x7ff8000000000001L), Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MIN_VALUE, -Double.MIN_VALUE, -1.5, 1.5};
+        Random random = new Random(22);
+        for (int size : new int[]{0, 1, 10, SalaryRadixSort.INSERTION_THRESHOLD + 1, 5000}) {
+            List<Collaborator> collaborators = new ArrayList<>();
+            for (int index = 0; index < size; index++) {
+                double salary = index % 3 == 0 ? special[random.nextInt(special.length)] : random.nextInt(50) * 1000.0;
+                collaborators.add(new Collaborator("Collaborator " + index, salary, new Sector("XTW04")));
+            }
+            List<Collaborator> expected = new ArrayList<>(collaborators);
+            expected.sort(Comparator.comparingDouble(Collaborator::getSalary));
+            List<Collaborator> sorted = new ArrayList<>(collaborators);
+            SalaryRadixSort.sort(sorted);
+            Assertions.assertEquals(expected, sorted);
+        }
+
+        List<Collaborator> large = new ArrayList<>();
+        for (int index = 0; index < SectorService.PARALLEL_SORT_THRESHOLD * 2; index++) {
+            large.add(new Collaborator("Collaborator " + index, random.nextInt(1000) * 10.1, new Sector(index % 10 == 0 ? "TTW01" : "XTW04")));
+        }
+        Map<String, SectorSummary> parallel = service.compileInParallel(new Collaborators(large));
+        Assertions.assertTrue(parallel.get("XTW04").getCollaborators().size() >= SectorService.PARALLEL_SORT_THRESHOLD);
+        Assertions.assertEquals(service.compileSequentially(new Collaborators(large)), parallel);
+
+        long[] keys = {SalaryRadixSort.key(3.0), SalaryRadixSort.key(1.0), SalaryRadixSort.key(2.0), SalaryRadixSort.key(1.0)};
+        int[] values = {0, 1, 2, 3};
+        SalaryRadixSort.sort(keys, values, 1, 4);
+        Assertions.assertArrayEquals(new int[]{0, 1, 3, 2}, values);
+        Assertions.assertEquals(SalaryRadixSort.key(3.0), keys[0]);
+    }
+
+    @Test
+    public void UC03_23() throws InvalidSalaryException, InvalidSectorException {
+        Map<String, SectorSummary> yesterday = service.compile(new Collaborators(Arrays.asList(
+                new Collaborator("André Justi", 500000.0, new Sector("XTW04")),
+                new Collaborator("Paulo Gustavo", 100000.0, new Sector("TTW01")),
+                new Collaborator("Wellington Macedo", 300000.0, new Sector("XTW04")),
+                new Collaborator("Maycow Antunes", 300000.0, new Sector("KTW02"))
+        )));
+        Map<String, SectorSummary> rebuilt = service.compile(new Collaborators(Arrays.asList(
+                new Collaborator("André Justi", 500000.0, new Sector("XTW04")),
+                new Collaborator("Paulo Gustavo", 100000.0, new Sector("TTW01")),
+                new Collaborator("Wellington Macedo", 300000.0, new Sector("XTW04")),
+                new Collaborator("Maycow Antunes", 300000.0, new Sector("KTW02"))
+        )));
+        Map<String, SectorSummary> today = service.compile(new Collaborators(Arrays.asList(
+                new Collaborator("André Justi", 500000.0, new Sector("XTW04")),
+                new Collaborator("Paulo Gustavo", 100000.0, new Sector("TTW01")),
+                new Collaborator("Wellington Macedo", 300001.0, new Sector("XTW04")),
+                new Collaborator("Ana Lima", 300000.0, new Sector("LTW03"))
+        )));
+
+        Assertions.assertTrue(SectorSummaryDiff.between(yesterday, rebuilt).isEmpty());
+        Assertions.assertEquals(yesterday.get("XTW04").getFingerprint(), rebuilt.get("XTW04").getFingerprint());
+        Assertions.assertNotEquals(yesterday.get("XTW04").getFingerprint(), today.get("XTW04").getFingerprint());
+        Assertions.assertNotEquals(yesterday.get("XTW04"), today.get("XTW04"));
+
+        SectorSummaryDiff diff = SectorSummaryDiff.between(yesterday, today);
+        Assertions.assertEquals(Collections.singleton("LTW03"), diff.getAdded());
+        Assertions.assertEquals(Collections.singleton("KTW02"), diff.getRemoved());
+        Assertions.assertEquals(Collections.singleton("XTW04"), diff.getChanged());
+
+        today.values().forEach(it -> Assertions.assertEquals(SectorSummary.fingerprint(it.getTotal(), it.getCollaborators()), it.getFingerprint()));
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> today.get("XTW04").getCollaborators().clear());
+
+        SectorSummary summary = today.get("TTW01");
+        List<Collaborator> source = new ArrayList<>(summary.getCollaborators());
+        SectorSummary copy = new SectorSummary(summary.getTotal(), source);
+        Assertions.assertEquals(summary, copy);
+        Assertions.assertEquals(summary.hashCode(), copy.hashCode());
+        source.set(0, new Collaborator("Ana Lima", 100000.0, new Sector("TTW01")));
+        Assertions.assertEquals(summary, copy);
+        Assertions.assertTrue(SectorSummaryDiff.between(today, Map.of("TTW01", copy, "XTW04", today.get("XTW04"), "LTW03", today.get("LTW03"))).isEmpty());
+        Assertions.assertNotEquals(SectorSummary.fingerprint(1.0, Arrays.asList(new Collaborator("ab", 1.0, null), new Collaborator("c", 1.0, null))),
+                SectorSummary.fingerprint(1.0, Arrays.asList(new Collaborator("a", 1.0, null), new Collaborator("bc", 1.0, null))));
+    }
+
+    @Test
+    public void UC03_24() throws InvalidSalaryException, InvalidSectorException {
+        List<Collaborator> collaborators = Arrays.asList(
+                new Collaborator("André Justi", 1000.0, new Sector("XTW04")),
+                new Collaborator("Paulo Gustavo", Double.POSITIVE_INFINITY, new Sector("XTW04")),
+                new Collaborator("Wellington Macedo", 0.0, new Sector("XTW04")),
+                new Collaborator("Maycow Antunes", 1000.0, new Sector("TTW01")),
+                new Collaborator("Ana Lima", Double.NaN, new Sector("TTW01")),
+                new Collaborator("João Silva", Double.POSITIVE_INFINITY, new Sector("TTW01"))
+        );
+        Map<String, SectorStatistics> statistics = service.summarize(new Collaborators(collaborators), 2);
+        Map<String, SectorSummary> summaries = service.compile(new Collaborators(collaborators));
+
+        SectorStatistics infinite = statistics.get("XTW04");
+        Assertions.assertEquals(summaries.get("XTW04").getTotal(), Double.valueOf(infinite.getTotal()));
+        Assertions.assertEquals(Double.valueOf(0.0), Double.valueOf(infinite.getPercentile(0)));
+        Assertions.assertEquals(1000.0, infinite.getPercentile(50), 1000.0 * SalarySketch.DEFAULT_RELATIVE_ACCURACY);
+        Assertions.assertEquals(Double.valueOf(Double.POSITIVE_INFINITY), Double.valueOf(infinite.getPercentile(100)));
+        Assertions.assertEquals("[Collaborator{name='Paulo Gustavo'}, Collaborator{name='André Justi'}]", infinite.getTopEarners().toString());
+
+        SectorStatistics nan = statistics.get("TTW01");
+        Assertions.assertEquals(summaries.get("TTW01").getTotal(), Double.valueOf(nan.getTotal()));
+        Assertions.assertEquals(1000.0, nan.getPercentile(0), 1000.0 * SalarySketch.DEFAULT_RELATIVE_ACCURACY);
+        Assertions.assertEquals(Double.valueOf(Double.POSITIVE_INFINITY), Double.valueOf(nan.getPercentile(50)));
+        Assertions.assertEquals(Double.valueOf(Double.NaN), Double.valueOf(nan.getPercentile(100)));
+        infinite.merge(nan);
+        Assertions.assertEquals(Double.valueOf(Double.NaN), Double.valueOf(infinite.getPercentile(100)));
+        Assertions.assertEquals(Double.valueOf(Double.POSITIVE_INFINITY), Double.valueOf(infinite.getPercentile(70)));
+
+        CollaboratorBatch batch = CollaboratorBatch.of(new Collaborators(collaborators));
+        Assertions.assertEquals(summaries.get("XTW04").getTotal(), service.compile(batch).get("XTW04").getTotal());
+
+        Collaborator unnamed = new Collaborator("Maycow Antunes", 10.0, new Sector(null));
+        Assertions.assertThrows(InvalidSalaryException.class, () -> service.summarize(new Collaborators(Arrays.asList(unnamed, new Collaborator("Paulo Gustavo", -1.0, new Sector("TTW01")))), 2));
+        Assertions.assertThrows(InvalidSectorException.class, () -> service.summarize(new Collaborators(Arrays.asList(unnamed, new Collaborator("Paulo Gustavo", 10.0, null))), 2));
+        Assertions.assertThrows(NullPointerException.class, () -> service.summarize(new Collaborators(Collections.singletonList(unnamed)), 2));
+    }
+
+    // benchmarks live next to the package-private types they exercise; run with --args='UC03'
+    @State(Scope.Benchmark)
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    @Fork(1)
+    public static class CompileBenchmark {
+
+        @Param({"10000", "1000000"})
+        public int size;
+
+        @Param({"100"})
+        public int sectors;
+
+        private SectorService service;
+        private Collaborators collaborators;
+        private CollaboratorBatch batch;
+
+        @Setup
+        public void setUp() throws InvalidSalaryException, InvalidSectorException {
+            Random random = new Random(42);
+            List<Collaborator> list = new ArrayList<>(size);
+            for (int index = 0; index < size; index++) {
+                list.add(new Collaborator("Collaborator " + index, random.nextInt(1000000) / 100.0, new Sector("XTW" + random.nextInt(sectors))));
+            }
+            service = new SectorService();
+            collaborators = new Collaborators(list);
+            batch = CollaboratorBatch.of(collaborators);
+        }
+
+        @Benchmark
+        public Map<String, SectorSummary> compile() throws InvalidSalaryException, InvalidSectorException {
+            return service.compileSequentially(collaborators);
+        }
+
+        @Benchmark
+        public Map<String, SectorSummary> compileBatch() {
+            return service.compile(batch);
+        }
+
+        @Benchmark
+        public Map<String, SectorSummary> buildAndCompileBatch() throws InvalidSalaryException, InvalidSectorException {
+            return service.compile(CollaboratorBatch.of(collaborators));
+        }
+    }
+
+    @State(Scope.Benchmark)
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    @Fork(1)
+    public static class SortBenchmark {
+
+        @Param({"10000", "1000000"})
+        public int size;
+
+        private List<Collaborator> collaborators;
+
+        @Setup
+        public void setUp() {
+            Random random = new Random(42);
+            collaborators = new ArrayList<>(size);
+            for (int index = 0; index < size; index++) {
+                collaborators.add(new Collaborator("Collaborator " + index, random.nextInt(1000000) / 100.0, new Sector("XTW04")));
+            }
+        }
+
+        @Benchmark
+        public List<Collaborator> sortByComparator() {
+            List<Collaborator> sorted = new ArrayList<>(collaborators);
+            sorted.sort(Comparator.comparingDouble(Collaborator::getSalary));
+            return sorted;
+        }
+
+        @Benchmark
+        public List<Collaborator> sortByRadix() {
+            List<Collaborator> sorted = new ArrayList<>(collaborators);
+            SalaryRadixSort.sort(sorted);
+            return sorted;
+        }
+    }
 }
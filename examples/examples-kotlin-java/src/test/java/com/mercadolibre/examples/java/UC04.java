@@ -4,7 +4,10 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 class Collaborator04 {
 	private String name;
@@ -91,40 +94,164 @@ class InvalidCompanyException extends IllegalArgumentException {
 	}
 }
 
+class CompanyRows {
+	private final List<String> collaborators = new ArrayList<>();
+	private final List<String> offices = new ArrayList<>();
+
+	public List<String> getCollaborators() {
+		return collaborators;
+	}
+
+	public List<String> getOffices() {
+		return offices;
+	}
+}
+
+class CompanyJoin {
+	// inputs already ordered by companyId are merge-joined in one pass, anything else goes through a single hash table
+	public static void join(List<Collaborator04> collaborators, List<Office> offices, Consumer<Company> sink) {
+		if (isSorted(collaborators, Collaborator04::getCompanyId) && isSorted(offices, Office::getCompanyId)) {
+			mergeJoin(randomAccess(collaborators), randomAccess(offices), sink);
+		} else {
+			hashJoin(collaborators, offices, sink);
+		}
+	}
+
+	static void mergeJoin(List<Collaborator04> collaborators, List<Office> offices, Consumer<Company> sink) {
+		int collaborator = 0;
+		int office = 0;
+		while (collaborator < collaborators.size() || office < offices.size()) {
+			String companyId;
+			if (office >= offices.size()) {
+				companyId = collaborators.get(collaborator).getCompanyId();
+			} else if (collaborator >= collaborators.size()) {
+				companyId = offices.get(office).getCompanyId();
+			} else {
+				String collaboratorCompany = collaborators.get(collaborator).getCompanyId();
+				String officeCompany = offices.get(office).getCompanyId();
+				companyId = collaboratorCompany.compareTo(officeCompany) <= 0 ? collaboratorCompany : officeCompany;
+			}
+			List<String> collaboratorNames = new ArrayList<>();
+			while (collaborator < collaborators.size() && collaborators.get(collaborator).getCompanyId().equals(companyId)) {
+				collaboratorNames.add(collaborators.get(collaborator++).getName());
+			}
+			List<String> officeNames = new ArrayList<>();
+			while (office < offices.size() && offices.get(office).getCompanyId().equals(companyId)) {
+				officeNames.add(offices.get(office++).getName());
+			}
+			sink.accept(company(companyId, collaboratorNames, officeNames));
+		}
+	}
+
+	static void hashJoin(List<Collaborator04> collaborators, List<Office> offices, Consumer<Company> sink) {
+		Map<String, CompanyRows> companies = new HashMap<>();
+		for (Collaborator04 collaborator : collaborators) {
+			companies.computeIfAbsent(collaborator.getCompanyId(), it -> new CompanyRows()).getCollaborators().add(collaborator.getName());
+		}
+		for (Office office : offices) {
+			companies.computeIfAbsent(office.getCompanyId(), it -> new CompanyRows()).getOffices().add(office.getName());
+		}
+		List<String> companyIds = new ArrayList<>(companies.keySet());
+		Collections.sort(companyIds);
+		for (String companyId : companyIds) {
+			CompanyRows rows = companies.get(companyId);
+			sink.accept(company(companyId, rows.getCollaborators(), rows.getOffices()));
+		}
+	}
+
+	static <T> boolean isSorted(List<T> rows, Function<T, String> companyId) {
+		String previous = null;
+		for (T row : rows) {
+			String current = companyId.apply(row);
+			if (previous != null && previous.compareTo(current) > 0) {
+				return false;
+			}
+			previous = current;
+		}
+		return true;
+	}
+
+	// mergeJoin walks both lists by index, which a LinkedList would turn quadratic
+	static <T> List<T> randomAccess(List<T> rows) {
+		return rows instanceof RandomAccess ? rows : new ArrayList<>(rows);
+	}
+
+	private static Company company(String companyId, List<String> collaborators, List<String> offices) {
+		Collections.sort(collaborators);
+		Collections.sort(offices);
+		return new Company(companyId, collaborators.isEmpty() ? null : collaborators, offices.isEmpty() ? null : offices);
+	}
+}
+
 class OfficesService {
+	public static final int PARALLEL_THRESHOLD = 10000;
+
 	public List<Company> compile(List<Collaborator04> collaborators, List<Office> offices) throws InvalidCompanyException {
 		if (collaborators == null || offices == null) {
 			return null;
 		}
 		validate(collaborators, offices);
-		Map<String, List<Collaborator04>> collaboratorsCompanies = collaborators
-				.stream()
-				.collect(Collectors.groupingBy(Collaborator04::getCompanyId));
-		Map<String, List<Office>> officesCompanies = offices
-				.stream()
-				.collect(Collectors.groupingBy(Office::getCompanyId));
-		HashSet<String> companyIds = new HashSet<String>();
-		companyIds.addAll(collaboratorsCompanies.keySet());
-		companyIds.addAll(officesCompanies.keySet());
-		return companyIds
-					.stream()
-					.map(it -> parseCompany(it, collaboratorsCompanies.get(it), officesCompanies.get(it)))
-					.sorted(Comparator.comparing(Company::getCompanyId)).collect(Collectors.toList());
-	}
-
-	private Company parseCompany(String companyId, List<Collaborator04> collaborators, List<Office> offices) {
-		return new Company(
-			companyId,
-			collaborators == null || collaborators.isEmpty() ? null : collaborators
-				.stream()
-				.map(Collaborator04::getName)
-				.sorted()
-				.collect(Collectors.toList()),
-				offices == null || offices.isEmpty() ? null : offices
-					.stream()
-					.map(Office::getName)
-					.sorted()
-					.collect(Collectors.toList()));
+		if (collaborators.size() + offices.size() >= PARALLEL_THRESHOLD) {
+			return compileInParallel(collaborators, offices);
+		}
+		return compileSequentially(collaborators, offices);
+	}
+
+	List<Company> compileSequentially(List<Collaborator04> collaborators, List<Office> offices) {
+		List<Company> companies = new ArrayList<>();
+		CompanyJoin.join(collaborators, offices, companies::add);
+		return companies;
+	}
+
+	// a company lands in exactly one partition, so partitions join independently and only their ordered outputs need merging
+	List<Company> compileInParallel(List<Collaborator04> collaborators, List<Office> offices) {
+		int partitions = Math.max(1, ForkJoinPool.commonPool().getParallelism());
+		List<List<Collaborator04>> collaboratorPartitions = new ArrayList<>(partitions);
+		List<List<Office>> officePartitions = new ArrayList<>(partitions);
+		for (int partition = 0; partition < partitions; partition++) {
+			collaboratorPartitions.add(new ArrayList<>());
+			officePartitions.add(new ArrayList<>());
+		}
+		for (Collaborator04 collaborator : collaborators) {
+			collaboratorPartitions.get(Math.floorMod(collaborator.getCompanyId().hashCode(), partitions)).add(collaborator);
+		}
+		for (Office office : offices) {
+			officePartitions.get(Math.floorMod(office.getCompanyId().hashCode(), partitions)).add(office);
+		}
+		List<ForkJoinTask<List<Company>>> tasks = new ArrayList<>(partitions);
+		for (int partition = 0; partition < partitions; partition++) {
+			List<Collaborator04> partitionCollaborators = collaboratorPartitions.get(partition);
+			List<Office> partitionOffices = officePartitions.get(partition);
+			tasks.add(ForkJoinPool.commonPool().submit(() -> {
+				List<Company> companies = new ArrayList<>();
+				CompanyJoin.hashJoin(partitionCollaborators, partitionOffices, companies::add);
+				return companies;
+			}));
+		}
+		List<List<Company>> joined = new ArrayList<>(partitions);
+		tasks.forEach(it -> joined.add(it.join()));
+		return merge(joined);
+	}
+
+	private static List<Company> merge(List<List<Company>> partitions) {
+		int[] positions = new int[partitions.size()];
+		PriorityQueue<Integer> heads = new PriorityQueue<>(Comparator.comparing(partition -> partitions.get(partition).get(positions[partition]).getCompanyId()));
+		int size = 0;
+		for (int partition = 0; partition < partitions.size(); partition++) {
+			size += partitions.get(partition).size();
+			if (!partitions.get(partition).isEmpty()) {
+				heads.add(partition);
+			}
+		}
+		List<Company> companies = new ArrayList<>(size);
+		while (!heads.isEmpty()) {
+			int partition = heads.poll();
+			companies.add(partitions.get(partition).get(positions[partition]++));
+			if (positions[partition] < partitions.get(partition).size()) {
+				heads.add(partition);
+			}
+		}
+		return companies;
 	}
 
 	private void validate(List<Collaborator04> collaborators, List<Office> offices) throws InvalidCompanyException {
@@ -225,4 +352,73 @@ public class UC04 {
 		OfficesService service = new OfficesService();
 		Assertions.assertNull(service.compile(null, null));
 	}
+
+	@Test
+	public void UC04_08() throws InvalidCompanyException {
+		List<Collaborator04> collaborators = Arrays.asList(
+			new Collaborator04("Wellington Macedo", "Meli"),
+			new Collaborator04("Paulo Gustavo", "Meli Envios"),
+			new Collaborator04("Maycow Antunes", "Meli"),
+			new Collaborator04("André Justi", "Mercado Pago")
+		);
+		List<Office> offices = Arrays.asList(
+			new Office("Meli Floripa", "Meli"),
+			new Office("Meli Cidade", "Meli"),
+			new Office("Mercado Livre Osasco", "Mercado Livre")
+		);
+		List<Company> expected = List.of(
+			new Company("Meli", List.of("Maycow Antunes", "Wellington Macedo"), List.of("Meli Cidade", "Meli Floripa")),
+			new Company("Meli Envios", List.of("Paulo Gustavo"), null),
+			new Company("Mercado Livre", null, List.of("Mercado Livre Osasco")),
+			new Company("Mercado Pago", List.of("André Justi"), null)
+		);
+		OfficesService service = new OfficesService();
+		Assertions.assertFalse(CompanyJoin.isSorted(collaborators, Collaborator04::getCompanyId));
+		Assertions.assertEquals(expected, service.compile(collaborators, offices));
+
+		List<Collaborator04> sortedCollaborators = new ArrayList<>(collaborators);
+		sortedCollaborators.sort(Comparator.comparing(Collaborator04::getCompanyId));
+		List<Office> sortedOffices = new ArrayList<>(offices);
+		sortedOffices.sort(Comparator.comparing(Office::getCompanyId));
+		Assertions.assertTrue(CompanyJoin.isSorted(sortedCollaborators, Collaborator04::getCompanyId));
+		Assertions.assertTrue(CompanyJoin.isSorted(sortedOffices, Office::getCompanyId));
+		Assertions.assertEquals(expected, service.compile(sortedCollaborators, sortedOffices));
+
+		Assertions.assertEquals(expected, service.compile(new LinkedList<>(sortedCollaborators), new LinkedList<>(sortedOffices)));
+		Assertions.assertEquals(expected, service.compile(new LinkedList<>(collaborators), new LinkedList<>(offices)));
+		Assertions.assertTrue(CompanyJoin.randomAccess(new LinkedList<>(offices)) instanceof RandomAccess);
+		Assertions.assertSame(sortedOffices, CompanyJoin.randomAccess(sortedOffices));
+
+		List<Company> hashJoined = new ArrayList<>();
+		CompanyJoin.hashJoin(sortedCollaborators, sortedOffices, hashJoined::add);
+		Assertions.assertEquals(expected, hashJoined);
+		Assertions.assertEquals(Collections.emptyList(), service.compile(Collections.emptyList(), Collections.emptyList()));
+		Assertions.assertEquals(List.of(new Company("Meli", null, List.of("Meli Floripa"))), service.compile(Collections.emptyList(), List.of(new Office("Meli Floripa", "Meli"))));
+	}
+
+	@Test
+	public void UC04_09() throws InvalidCompanyException {
+		Random random = new Random(25);
+		List<Collaborator04> collaborators = new ArrayList<>();
+		for (int index = 0; index < OfficesService.PARALLEL_THRESHOLD; index++) {
+			collaborators.add(new Collaborator04("Collaborator " + random.nextInt(100000), "Company " + index % 700));
+		}
+		List<Office> offices = new ArrayList<>();
+		for (int index = 0; index < 2000; index++) {
+			offices.add(new Office("Office " + random.nextInt(100000), "Company " + (100 + index % 700)));
+		}
+		OfficesService service = new OfficesService();
+		List<Company> expected = service.compileSequentially(collaborators, offices);
+		Assertions.assertEquals(800, expected.size());
+		Assertions.assertEquals(expected, service.compileInParallel(collaborators, offices));
+		Assertions.assertEquals(expected, service.compile(collaborators, offices));
+
+		List<Collaborator04> few = List.of(new Collaborator04("Paulo Gustavo", "Meli Envios"), new Collaborator04("Maycow Antunes", "Meli"));
+		List<Company> companies = List.of(
+			new Company("Meli", List.of("Maycow Antunes"), List.of("Meli Floripa")),
+			new Company("Meli Envios", List.of("Paulo Gustavo"), null)
+		);
+		Assertions.assertEquals(companies, service.compileInParallel(few, List.of(new Office("Meli Floripa", "Meli"))));
+		Assertions.assertEquals(Collections.emptyList(), service.compileInParallel(Collections.emptyList(), Collections.emptyList()));
+	}
 }